@@ -3,9 +3,11 @@ package com.example.recommendations;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableDiscoveryClient  // ← Add this
+@EnableScheduling
 public class RecommendationsServiceApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,104 @@
+package com.example.recommendations.clients;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Times every call to a downstream service as recommendations.downstream.requests,
+ * tagged with the service, the endpoint and the outcome of the call. Outcomes
+ * follow the series of the response status, or IO_ERROR when there was no response.
+ */
+@Component
+public class DownstreamMetrics {
+
+    public static final String REQUESTS = "recommendations.downstream.requests";
+    public static final String HEDGES = "recommendations.downstream.hedges";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public DownstreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // Runs a blocking call and records how long it took
+    public <T> T time(String service, String endpoint, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "SUCCESS";
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            outcome = outcome(e);
+            throw e;
+        } finally {
+            sample.stop(timer(service, endpoint, outcome));
+        }
+    }
+
+    // Records how long a reactive call took from subscription to its result
+    public <T> Mono<T> time(String service, String endpoint, Mono<T> call) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return call
+                    .doOnSuccess(result -> sample.stop(timer(service, endpoint, "SUCCESS")))
+                    .doOnError(e -> sample.stop(timer(service, endpoint, outcome(e))))
+                    .doOnCancel(() -> sample.stop(timer(service, endpoint, "CANCELLED")));
+        });
+    }
+
+    // Counts calls that were also sent to a second instance because the first was slow
+    public void recordHedge(String service, String endpoint) {
+        Counter.builder(HEDGES)
+                .description("Downstream calls sent to a second instance")
+                .tag("service", service)
+                .tag("endpoint", endpoint)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Timer timer(String service, String endpoint, String outcome) {
+        return Timer.builder(REQUESTS)
+                .description("Calls to downstream services")
+                .tag("service", service)
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    static String outcome(Throwable e) {
+        HttpStatusCode status = null;
+        if (e instanceof RestClientResponseException responseException) {
+            status = responseException.getStatusCode();
+        } else if (e instanceof WebClientResponseException responseException) {
+            status = responseException.getStatusCode();
+        } else if (e instanceof ResponseStatusException statusException) {
+            status = statusException.getStatusCode();
+        } else if (e instanceof ResourceAccessException || e instanceof WebClientRequestException) {
+            return "IO_ERROR";
+        }
+
+        if (status == null) {
+            return "UNKNOWN";
+        }
+        if (status.is4xxClientError()) {
+            return "CLIENT_ERROR";
+        }
+        if (status.is5xxServerError()) {
+            return "SERVER_ERROR";
+        }
+        return "UNKNOWN";
+    }
+}
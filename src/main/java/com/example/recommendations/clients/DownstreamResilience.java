@@ -0,0 +1,292 @@
+package com.example.recommendations.clients;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a slow or failing downstream service from stalling our requests.
+ * Calls to each service go through its own circuit breaker, which opens when
+ * too many calls fail or are slow. While open, calls answer with their fallback,
+ * or 503 if they have none, until the service is tried again.
+ * Idempotent reads can also be hedged: when a call takes longer than the given
+ * percentile of its endpoint's recent latencies, a second attempt goes to another
+ * instance and whichever answers first is used.
+ */
+@Component
+public class DownstreamResilience implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DownstreamResilience.class);
+
+    // Latencies kept per endpoint, and how many are needed before hedging starts
+    private static final int LATENCY_WINDOW = 256;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final DownstreamMetrics downstreamMetrics;
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final ExecutorService hedgeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final boolean hedgingEnabled;
+    private final double hedgingPercentile;
+    private final Duration hedgingMinDelay;
+
+    @Autowired
+    public DownstreamResilience(DownstreamMetrics downstreamMetrics,
+                                @Value("${recommendations.downstream.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+                                @Value("${recommendations.downstream.circuit-breaker.slow-call-duration:2s}") Duration slowCallDuration,
+                                @Value("${recommendations.downstream.circuit-breaker.wait-in-open-state:10s}") Duration waitInOpenState,
+                                @Value("${recommendations.downstream.hedging.enabled:false}") boolean hedgingEnabled,
+                                @Value("${recommendations.downstream.hedging.percentile:0.95}") double hedgingPercentile,
+                                @Value("${recommendations.downstream.hedging.min-delay:50ms}") Duration hedgingMinDelay) {
+        this.downstreamMetrics = downstreamMetrics;
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgingPercentile = hedgingPercentile;
+        this.hedgingMinDelay = hedgingMinDelay;
+
+        // Only failures of the service itself count, a 404 is a valid answer
+        CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+                .slidingWindow(50, 20, CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(slowCallDuration)
+                .waitDurationInOpenState(waitInOpenState)
+                .permittedNumberOfCallsInHalfOpenState(5)
+                .recordException(DownstreamResilience::isFailure)
+                .build();
+        this.circuitBreakers = CircuitBreakerRegistry.of(config);
+        this.circuitBreakers.getEventPublisher().onEntryAdded(added -> added.getAddedEntry().getEventPublisher()
+                .onStateTransition(event -> log.warn("Circuit breaker of {}: {}",
+                        event.getCircuitBreakerName(), event.getStateTransition())));
+    }
+
+    // Client on the shared connection pool with its own read timeout, so one slow endpoint can't hold a thread for long
+    public static RestClient restClient(RestClient.Builder builder, HttpClient httpClient, Duration readTimeout) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setResponseTimeout(Timeout.of(readTimeout))
+                .build();
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setHttpContextFactory((method, uri) -> {
+            HttpClientContext context = HttpClientContext.create();
+            context.setRequestConfig(requestConfig);
+            return context;
+        });
+        return builder.clone()
+                .requestFactory(requestFactory)
+                .build();
+    }
+
+    // Blocking call through the circuit breaker of the service, 503 while it is open
+    public <T> T call(String service, String endpoint, Supplier<T> call) {
+        return call(service, endpoint, call, null);
+    }
+
+    // Same as above, answering with the fallback while the service is failing
+    public <T> T call(String service, String endpoint, Supplier<T> call, Supplier<T> fallback) {
+        return guard(service, () -> attempt(service, endpoint, call), fallback);
+    }
+
+    // Same as above for idempotent reads, also sent to a second instance when the first one is slow
+    public <T> T hedged(String service, String endpoint, Supplier<String> baseUrl, Function<String, T> call) {
+        return hedged(service, endpoint, baseUrl, call, null);
+    }
+
+    // Same as above, answering with the fallback while the service is failing
+    public <T> T hedged(String service, String endpoint, Supplier<String> baseUrl,
+                        Function<String, T> call, Supplier<T> fallback) {
+        return guard(service, () -> hedge(service, endpoint, baseUrl, call), fallback);
+    }
+
+    // Reactive call through the circuit breaker of the service, 503 while it is open
+    public <T> Mono<T> call(String service, String endpoint, Mono<T> call) {
+        return Mono.defer(() -> {
+            CircuitBreaker breaker = circuitBreakers.circuitBreaker(service);
+            if (!breaker.tryAcquirePermission()) {
+                return Mono.error(unavailable(service));
+            }
+            long start = breaker.getCurrentTimestamp();
+            return downstreamMetrics.time(service, endpoint, call)
+                    .doOnSuccess(result -> breaker.onSuccess(
+                            breaker.getCurrentTimestamp() - start, breaker.getTimestampUnit()))
+                    .doOnError(e -> breaker.onError(
+                            breaker.getCurrentTimestamp() - start, breaker.getTimestampUnit(), e))
+                    .doOnCancel(breaker::releasePermission);
+        });
+    }
+
+    // Same as above, answering with the fallback while the service is failing
+    public <T> Mono<T> call(String service, String endpoint, Mono<T> call, Supplier<Mono<T>> fallback) {
+        return call(service, endpoint, call)
+                .onErrorResume(DownstreamResilience::isFailure, e -> {
+                    log.debug("Falling back for {} {}: {}", service, endpoint, e.getMessage());
+                    return fallback.get();
+                });
+    }
+
+    private <T> T guard(String service, Supplier<T> call, Supplier<T> fallback) {
+        CircuitBreaker breaker = circuitBreakers.circuitBreaker(service);
+        try {
+            return breaker.executeSupplier(call);
+        } catch (CallNotPermittedException e) {
+            if (fallback == null) {
+                throw unavailable(service);
+            }
+            return fallback.get();
+        } catch (RuntimeException e) {
+            if (fallback == null || !isFailure(e)) {
+                throw e;
+            }
+            log.debug("Falling back for {}: {}", service, e.getMessage());
+            return fallback.get();
+        }
+    }
+
+    // One attempt, timed, its latency remembered for hedging if it succeeds
+    private <T> T attempt(String service, String endpoint, Supplier<T> call) {
+        long start = System.nanoTime();
+        T result = downstreamMetrics.time(service, endpoint, call);
+        latencies.computeIfAbsent(service + " " + endpoint, key -> new LatencyWindow())
+                .record(System.nanoTime() - start);
+        return result;
+    }
+
+    private <T> T hedge(String service, String endpoint, Supplier<String> baseUrl, Function<String, T> call) {
+        String firstUrl = baseUrl.get();
+        long delayNanos = hedgeDelayNanos(service, endpoint);
+        if (delayNanos < 0) {
+            return attempt(service, endpoint, () -> call.apply(firstUrl));
+        }
+
+        CompletableFuture<T> first = CompletableFuture.supplyAsync(
+                () -> attempt(service, endpoint, () -> call.apply(firstUrl)), hedgeExecutor);
+        try {
+            return first.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Slower than usual, ask another instance as well
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unavailable(service);
+        }
+
+        String secondUrl = baseUrl.get();
+        if (secondUrl.equals(firstUrl)) {
+            return join(first, service);
+        }
+        downstreamMetrics.recordHedge(service, endpoint);
+        CompletableFuture<T> second = CompletableFuture.supplyAsync(
+                () -> attempt(service, endpoint, () -> call.apply(secondUrl)), hedgeExecutor);
+        return join(firstSuccessful(first, second), service);
+    }
+
+    // How long to wait before hedging a call, negative when it shouldn't be hedged
+    private long hedgeDelayNanos(String service, String endpoint) {
+        if (!hedgingEnabled) {
+            return -1;
+        }
+        LatencyWindow window = latencies.get(service + " " + endpoint);
+        long percentile = window == null ? -1 : window.percentile(hedgingPercentile);
+        return percentile < 0 ? -1 : Math.max(percentile, hedgingMinDelay.toNanos());
+    }
+
+    // Result of whichever attempt succeeds first, or the last failure if both fail
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<T, Throwable> complete = (value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        };
+        first.whenComplete(complete);
+        second.whenComplete(complete);
+        return result;
+    }
+
+    // Attempts are bounded by the read timeout, so waiting for them needs no deadline of its own
+    private static <T> T join(CompletableFuture<T> future, String service) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw unavailable(service);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new IllegalStateException(e.getCause());
+    }
+
+    private static ResponseStatusException unavailable(String service) {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                service + " service is not available");
+    }
+
+    // Server errors, an open breaker included, and calls that got no answer at all
+    static boolean isFailure(Throwable e) {
+        String outcome = DownstreamMetrics.outcome(e);
+        return outcome.equals("SERVER_ERROR") || outcome.equals("IO_ERROR");
+    }
+
+    @Override
+    public void destroy() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    // Latencies of the latest successful calls to one endpoint
+    private static final class LatencyWindow {
+
+        private final long[] nanos = new long[LATENCY_WINDOW];
+        private int next;
+        private int size;
+
+        synchronized void record(long latencyNanos) {
+            nanos[next] = latencyNanos;
+            next = (next + 1) % nanos.length;
+            size = Math.min(size + 1, nanos.length);
+        }
+
+        // Latency below which the given share of calls finished, negative until there are enough calls
+        synchronized long percentile(double percentile) {
+            if (size < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(nanos, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+}
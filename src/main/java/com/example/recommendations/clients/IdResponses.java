@@ -0,0 +1,33 @@
+package com.example.recommendations.clients;
+
+import com.example.recommendations.util.JsonIdReader;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Reads ID lists straight from the response stream with JsonIdReader, instead
+ * of deserializing every object of the response first.
+ */
+final class IdResponses {
+
+    private IdResponses() { }
+
+    // Sends the request and reads the field of every object in the array it answers with
+    static long[] exchange(RestClient.RequestHeadersSpec<?> request, String field) {
+        return request.exchange((clientRequest, response) -> {
+            HttpStatusCode status = response.getStatusCode();
+            // Same exceptions retrieve() throws, so callers handle errors as before
+            if (status.is4xxClientError()) {
+                throw HttpClientErrorException.create(status, response.getStatusText(), response.getHeaders(),
+                        response.getBody().readAllBytes(), null);
+            }
+            if (status.is5xxServerError()) {
+                throw HttpServerErrorException.create(status, response.getStatusText(), response.getHeaders(),
+                        response.getBody().readAllBytes(), null);
+            }
+            return JsonIdReader.read(response.getBody(), field);
+        });
+    }
+}
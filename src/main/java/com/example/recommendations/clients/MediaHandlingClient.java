@@ -1,6 +1,9 @@
 package com.example.recommendations.clients;
 
+import com.example.recommendations.dtos.RecommendationDto;
+import org.apache.hc.client5.http.classic.HttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
 import org.springframework.core.ParameterizedTypeReference;
@@ -9,30 +12,47 @@ import org.springframework.http.HttpStatus;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Component
 public class MediaHandlingClient {
 
+    public static final String SERVICE_NAME = "media-handling";
+
     private final RestClient restClient;
+    // Whole catalog listings are large and only fetched in the background, so they may take longer
+    private final RestClient catalogRestClient;
     private final LoadBalancerClient loadBalancer;
+    private final DownstreamResilience downstreamResilience;
 
     @Autowired
-    public MediaHandlingClient(RestClient.Builder builder, LoadBalancerClient loadBalancer) {
-        this.restClient = builder.build();
+    public MediaHandlingClient(RestClient.Builder builder,
+                               LoadBalancerClient loadBalancer,
+                               DownstreamResilience downstreamResilience,
+                               HttpClient httpClient,
+                               @Value("${recommendations.downstream.timeouts.media-handling.read:2s}") Duration readTimeout,
+                               @Value("${recommendations.downstream.timeouts.media-handling.catalog-read:30s}") Duration catalogReadTimeout) {
+        this.restClient = DownstreamResilience.restClient(builder, httpClient, readTimeout);
+        this.catalogRestClient = DownstreamResilience.restClient(builder, httpClient, catalogReadTimeout);
         this.loadBalancer = loadBalancer;
+        this.downstreamResilience = downstreamResilience;
     }
 
     // Base method used for accessing the microservice
     private String resolveBaseUrl() {
-        ServiceInstance instance = loadBalancer.choose("media-handling");
+        ServiceInstance instance = loadBalancer.choose(SERVICE_NAME);
         if (instance == null) {
             throw new ResponseStatusException(
                     HttpStatus.SERVICE_UNAVAILABLE,
-                    "media-handling service is not available"
+                    SERVICE_NAME + " service is not available"
             );
         }
         return instance.getUri().toString();
@@ -43,71 +63,119 @@ public class MediaHandlingClient {
 
         String token = jwt.getTokenValue();
 
-        return restClient.get()
-                .uri(resolveBaseUrl() + "/api/v1/mediahandling/genreidbymediaid/{id}", mediaID)
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                .retrieve()
-                .body(Long.class);
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediahandling/genreidbymediaid/{id}",
+                () -> restClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediahandling/genreidbymediaid/{id}", mediaID)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .retrieve()
+                        .body(Long.class));
     }
 
-    // Get all media IDs belonging to certain genre
-    public List<Long> getMediaIdsByGenreId(Long genreId, Jwt jwt) {
+    // Get all media IDs belonging to certain genre, read from the response as it streams in
+    public long[] getMediaIdsByGenreId(Long genreId, Jwt jwt) {
 
         String token = jwt.getTokenValue();
 
-        List<Map<String, Object>> mediaList = restClient.get()
-                .uri(resolveBaseUrl() + "/api/v1/mediahandling/mediabygenre/{id}", genreId)
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                .retrieve()
-                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediahandling/mediabygenre/{id}",
+                () -> IdResponses.exchange(catalogRestClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediahandling/mediabygenre/{id}", genreId)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token), "id"));
+    }
+
+    // Get all existing media IDs, read from the response as it streams in
+    public long[] getAllMediaIds(Jwt jwt) {
 
-        if (mediaList == null) {
-            return List.of();
-        }
+        String token = jwt.getTokenValue();
 
-        return mediaList.stream()
-                .map(entry -> ((Number) entry.get("id")).longValue())
-                .toList();
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediahandling/media",
+                () -> IdResponses.exchange(catalogRestClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediahandling/media")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token), "id"));
     }
 
-    // Get all existing media IDs
-    public List<Long> getAllMediaIds(Jwt jwt) {
+    // Get all existing genre IDs
+    public long[] getAllGenreIds(Jwt jwt) {
 
         String token = jwt.getTokenValue();
 
-        List<Map<String, Object>> mediaList = restClient.get()
-                .uri(resolveBaseUrl() + "/api/v1/mediahandling/media")
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                .retrieve()
-                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediahandling/genres",
+                () -> IdResponses.exchange(catalogRestClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediahandling/genres")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token), "genreId"));
+    }
 
-        if (mediaList == null) {
-            return List.of();
-        }
+    // Get genre IDs keyed by genre name
+    public Map<String, Long> getGenreIdsByName(Jwt jwt) {
 
-        return mediaList.stream()
-                .map(entry -> ((Number) entry.get("id")).longValue())
-                .toList();
+        String token = jwt.getTokenValue();
+
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediahandling/genres", () -> {
+            List<Map<String, Object>> genreList = catalogRestClient.get()
+                    .uri(resolveBaseUrl() + "/api/v1/mediahandling/genres")
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .retrieve()
+                    .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+
+            if (genreList == null) {
+                return Map.of();
+            }
+
+            Map<String, Long> genreIdsByName = new LinkedHashMap<>();
+            for (Map<String, Object> entry : genreList) {
+                genreIdsByName.put(String.valueOf(entry.get("name")), ((Number) entry.get("genreId")).longValue());
+            }
+            return genreIdsByName;
+        });
     }
 
-    // Get all existing genre IDs
-    public List<Long> getAllGenreIds(Jwt jwt) {
+    // Get genre names of several media in one call, 503 while media-handling is failing
+    public Map<Long, List<String>> getGenresByMediaIds(Collection<Long> mediaIds, Jwt jwt) {
 
         String token = jwt.getTokenValue();
+        String idsParam = mediaIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        return downstreamResilience.hedged(SERVICE_NAME, "/api/v1/mediahandling/genresbymediaids", this::resolveBaseUrl, baseUrl -> {
+            try {
+                Map<Long, List<String>> genresByMediaIds = restClient.get()
+                        .uri(baseUrl + "/api/v1/mediahandling/genresbymediaids?mediaIds=" + idsParam)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .retrieve()
+                        .body(new ParameterizedTypeReference<Map<Long, List<String>>>() {});
+
+                if (genresByMediaIds == null) {
+                    return Map.of();
+                }
+
+                return genresByMediaIds;
+
+            } catch (RestClientResponseException e) {
+                throw new ResponseStatusException(HttpStatus.valueOf(e.getStatusCode().value()),
+                        "Error fetching genres: " + e.getResponseBodyAsString());
+            }
+        });
+    }
 
-        List<Map<String, Object>> genreList = restClient.get()
-                .uri(resolveBaseUrl() + "/api/v1/mediahandling/genres")
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                .retrieve()
-                .body(new ParameterizedTypeReference<List<Map<String, Object>>>() {});
+    // Get complete media from media ID, read straight into its presentation format, 503 while media-handling is failing
+    public RecommendationDto getRecommendationByMediaId(Long mediaId, Jwt jwt) {
 
-        if (genreList == null) {
-            return List.of();
-        }
+        String token = jwt.getTokenValue();
 
-        return genreList.stream()
-                .map(entry -> ((Number) entry.get("genreId")).longValue())
-                .toList();
+        return downstreamResilience.hedged(SERVICE_NAME, "/api/v1/mediahandling/media/{id}", this::resolveBaseUrl, baseUrl -> {
+            RecommendationDto media = restClient.get()
+                    .uri(baseUrl + "/api/v1/mediahandling/media/{id}", mediaId)
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .retrieve()
+                    .body(RecommendationDto.class);
+
+            // Only a 404 means the media doesn't exist, an empty answer is not cached as one
+            if (media == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                        SERVICE_NAME + " answered without the details of media " + mediaId);
+            }
+            return media;
+        });
     }
 
     // Get complete media from media ID
@@ -115,16 +183,18 @@ public class MediaHandlingClient {
 
         String token = jwt.getTokenValue();
 
-        String media = restClient.get()
-                .uri(resolveBaseUrl() + "/api/v1/mediahandling/media/{id}", mediaId)
-                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                .retrieve()
-                .body(String.class);
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediahandling/media/{id}", () -> {
+            String media = restClient.get()
+                    .uri(resolveBaseUrl() + "/api/v1/mediahandling/media/{id}", mediaId)
+                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                    .retrieve()
+                    .body(String.class);
 
-        if (media == null) {
-            return "No media found";
-        }
+            if (media == null) {
+                return "No media found";
+            }
 
-        return media;
+            return media;
+        });
     }
 }
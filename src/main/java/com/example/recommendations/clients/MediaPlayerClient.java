@@ -1,11 +1,12 @@
 package com.example.recommendations.clients;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import org.apache.hc.client5.http.classic.HttpClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.oauth2.jwt.Jwt;
@@ -13,121 +14,169 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriUtils;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.List;
 
 @Component
 public class MediaPlayerClient {
 
+    public static final String SERVICE_NAME = "media-player";
+    public static final String PLAYED_MEDIA_PATH = "/api/v1/mediaplayer/allplayed";
+
     private final RestClient restClient;
     private final LoadBalancerClient loadBalancer;
-    private final ObjectMapper objectMapper;
+    private final DownstreamResilience downstreamResilience;
+    // Play history of any user for a service token, with {userId} in it; media-player has none yet
+    private final String userHistoryPath;
 
     @Autowired
-    public MediaPlayerClient(RestClient.Builder builder, LoadBalancerClient loadBalancer, ObjectMapper objectMapper) {
-        this.restClient = builder.build();
+    public MediaPlayerClient(RestClient.Builder builder,
+                             LoadBalancerClient loadBalancer,
+                             DownstreamResilience downstreamResilience,
+                             HttpClient httpClient,
+                             @Value("${recommendations.downstream.timeouts.media-player.read:2s}") Duration readTimeout,
+                             @Value("${recommendations.batch.user-history-path:}") String userHistoryPath) {
+        this.restClient = DownstreamResilience.restClient(builder, httpClient, readTimeout);
         this.loadBalancer = loadBalancer;
-        this.objectMapper = objectMapper;
+        this.downstreamResilience = downstreamResilience;
+        this.userHistoryPath = userHistoryPath;
     }
 
     // Base method used for accessing the microservice
     private String resolveBaseUrl() {
-        ServiceInstance instance = loadBalancer.choose("media-player");
+        ServiceInstance instance = loadBalancer.choose(SERVICE_NAME);
         if (instance == null) {
             throw new ResponseStatusException(
                     HttpStatus.SERVICE_UNAVAILABLE,
-                    "media-player service is not available"
+                    SERVICE_NAME + " service is not available"
             );
         }
         return instance.getUri().toString();
     }
 
-    // Helper method for parsing JSON response from media-player and collecting IDs of media
-    private List<Long> extractMediaIDs(String json) {
-        try {
-            JsonNode root = objectMapper.readTree(json);
-            List<Long> ids = new ArrayList<>();
-            if (root.isArray()) {
-                for (JsonNode node : root) {
-                    // Expect field "id"
-                    if (node.has("id")) {
-                        ids.add(node.get("id").asLong());
-                    }
+    // User's play history with play counts, 503 while media-player is failing
+    public List<PlayedMediaDto> getPlayedMedia(Jwt jwt) {
+        return getPlayedMedia(PLAYED_MEDIA_PATH, PLAYED_MEDIA_PATH, jwt);
+    }
+
+    // Same as above for any user, asked for with a service token, 501 while no such endpoint is configured
+    public List<PlayedMediaDto> getPlayedMedia(String userId, Jwt serviceJwt) {
+        if (userHistoryPath.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED,
+                    "No profile of the user, and no per-user history endpoint of " + SERVICE_NAME + " is configured");
+        }
+        return getPlayedMedia(userHistoryPath,
+                userHistoryPath.replace("{userId}", UriUtils.encodePathSegment(userId, StandardCharsets.UTF_8)),
+                serviceJwt);
+    }
+
+    // Timed per endpoint template, so every user doesn't get a metric of their own
+    private List<PlayedMediaDto> getPlayedMedia(String endpoint, String path, Jwt jwt) {
+
+        String token = jwt.getTokenValue();
+
+        return downstreamResilience.hedged(SERVICE_NAME, endpoint, this::resolveBaseUrl, baseUrl -> {
+            try {
+                List<PlayedMediaDto> playedMedia = restClient.get()
+                        .uri(baseUrl + path)
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                        .retrieve()
+                        .body(new ParameterizedTypeReference<List<PlayedMediaDto>>() {});
+
+                if (playedMedia == null) {
+                    throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                            "Received null response from media-player service");
+                }
+                return playedMedia;
+
+            } catch (RestClientResponseException e) {
+                if (e.getStatusCode().value() == 404) {
+                    throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Media not found");
                 }
+                throw new ResponseStatusException(HttpStatus.valueOf(e.getStatusCode().value()),
+                        "Something went wrong when fetching media id:s: " + e.getResponseBodyAsString());
             }
-            return ids;
+        }, MediaPlayerClient::historyUnavailable);
+    }
 
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+    // An empty history would pass for a user who played nothing, and their played media would be recommended
+    static <T> T historyUnavailable() {
+        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                SERVICE_NAME + " service is not available, the play history can't be fetched");
     }
 
     // IDs of user's MOST PLAYED media
-    public List<Long> getMostPlayedMedia() {
-        try {
-            String json = restClient.get()
-                    .uri(resolveBaseUrl() + "/api/v1/mediaplayer/mostplayed")
-                    .retrieve()
-                    .body(String.class);
-            return extractMediaIDs(json);
-        } catch (RestClientResponseException e) {
-            throw new ResponseStatusException(
-                    e.getStatusCode(),
-                    "Failed to fetch most played media: " + e.getResponseBodyAsString()
-            );
-        }
+    public long[] getMostPlayedMedia() {
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediaplayer/mostplayed", () -> {
+            try {
+                return IdResponses.exchange(restClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediaplayer/mostplayed"), "id");
+            } catch (RestClientResponseException e) {
+                throw new ResponseStatusException(
+                        e.getStatusCode(),
+                        "Failed to fetch most played media: " + e.getResponseBodyAsString()
+                );
+            }
+        });
     }
 
     // IDs of user's ALL PLAYED media
-    public List<Long> getAllPlayedMedia(Jwt jwt) {
+    public long[] getAllPlayedMedia(Jwt jwt) {
 
         String token = jwt.getTokenValue();
 
-        try {
-            String json = restClient.get()
-                    .uri(resolveBaseUrl() + "/api/v1/mediaplayer/allplayed")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                    .retrieve()
-                    .body(String.class);
-            return extractMediaIDs(json);
-        } catch (RestClientResponseException e) {
-            throw new ResponseStatusException(
-                    e.getStatusCode(),
-                    "Failed to fetch all played media: " + e.getResponseBodyAsString()
-            );
-        }
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediaplayer/allplayed", () -> {
+            try {
+                return IdResponses.exchange(restClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediaplayer/allplayed")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token), "id");
+            } catch (RestClientResponseException e) {
+                throw new ResponseStatusException(
+                        e.getStatusCode(),
+                        "Failed to fetch all played media: " + e.getResponseBodyAsString()
+                );
+            }
+        });
     }
 
-    // IDs of user's LIKED media
-    public List<Long> getLikedMedia() {
-        try {
-            String json = restClient.get()
-                    .uri(resolveBaseUrl() + "/api/v1/mediaplayer/liked")
-                    .retrieve()
-                    .body(String.class);
-            return extractMediaIDs(json);
-        } catch (RestClientResponseException e) {
-            throw new ResponseStatusException(
-                    e.getStatusCode(),
-                    "Failed to fetch liked media: " + e.getResponseBodyAsString()
-            );
-        }
+    // IDs of user's LIKED media, recommendations read likes from getPlayedMedia instead of calling this
+    public long[] getLikedMedia(Jwt jwt) {
+
+        String token = jwt.getTokenValue();
+
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediaplayer/liked", () -> {
+            try {
+                return IdResponses.exchange(restClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediaplayer/liked")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token), "id");
+            } catch (RestClientResponseException e) {
+                throw new ResponseStatusException(
+                        e.getStatusCode(),
+                        "Failed to fetch liked media: " + e.getResponseBodyAsString()
+                );
+            }
+        });
     }
 
-    // IDs of user's DISLIKED media
-    public List<Long> getDislikedMedia() {
-        try {
-            String json = restClient.get()
-                    .uri(resolveBaseUrl() + "/api/v1/mediaplayer/disliked")
-                    .retrieve()
-                    .body(String.class);
-            return extractMediaIDs(json);
-        } catch (RestClientResponseException e) {
-            throw new ResponseStatusException(
-                    e.getStatusCode(),
-                    "Failed to fetch disliked media: " + e.getResponseBodyAsString()
-            );
-        }
+    // IDs of user's DISLIKED media, recommendations read likes from getPlayedMedia instead of calling this
+    public long[] getDislikedMedia(Jwt jwt) {
+
+        String token = jwt.getTokenValue();
+
+        return downstreamResilience.call(SERVICE_NAME, "/api/v1/mediaplayer/disliked", () -> {
+            try {
+                return IdResponses.exchange(restClient.get()
+                        .uri(resolveBaseUrl() + "/api/v1/mediaplayer/disliked")
+                        .header(HttpHeaders.AUTHORIZATION, "Bearer " + token), "id");
+            } catch (RestClientResponseException e) {
+                throw new ResponseStatusException(
+                        e.getStatusCode(),
+                        "Failed to fetch disliked media: " + e.getResponseBodyAsString()
+                );
+            }
+        });
     }
 }
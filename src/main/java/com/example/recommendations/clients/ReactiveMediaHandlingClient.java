@@ -0,0 +1,91 @@
+package com.example.recommendations.clients;
+
+import com.example.recommendations.dtos.RecommendationDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking counterpart of MediaHandlingClient for the reactive service.
+ * Only the calls made per request are here, the catalog is still loaded by
+ * CatalogCache through the blocking client.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendations.reactive.enabled", havingValue = "true")
+public class ReactiveMediaHandlingClient {
+
+    private final WebClient webClient;
+    private final LoadBalancerClient loadBalancer;
+    private final DownstreamResilience downstreamResilience;
+
+    @Autowired
+    public ReactiveMediaHandlingClient(WebClient.Builder builder,
+                                       LoadBalancerClient loadBalancer,
+                                       DownstreamResilience downstreamResilience) {
+        this.webClient = builder.build();
+        this.loadBalancer = loadBalancer;
+        this.downstreamResilience = downstreamResilience;
+    }
+
+    // Base method used for accessing the microservice
+    private String resolveBaseUrl() {
+        ServiceInstance instance = loadBalancer.choose(MediaHandlingClient.SERVICE_NAME);
+        if (instance == null) {
+            throw new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    MediaHandlingClient.SERVICE_NAME + " service is not available"
+            );
+        }
+        return instance.getUri().toString();
+    }
+
+    // Get genre names of several media in one call, 503 while media-handling is failing
+    public Mono<Map<Long, List<String>>> getGenresByMediaIds(Collection<Long> mediaIds, Jwt jwt) {
+
+        String token = jwt.getTokenValue();
+
+        String idsParam = mediaIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        return downstreamResilience.call(MediaHandlingClient.SERVICE_NAME, "/api/v1/mediahandling/genresbymediaids",
+                        Mono.defer(() -> webClient.get()
+                                .uri(resolveBaseUrl() + "/api/v1/mediahandling/genresbymediaids?mediaIds=" + idsParam)
+                                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                                .retrieve()
+                                .bodyToMono(new ParameterizedTypeReference<Map<Long, List<String>>>() {})))
+                .defaultIfEmpty(Map.of())
+                .onErrorMap(WebClientResponseException.class, e -> new ResponseStatusException(
+                        HttpStatus.valueOf(e.getStatusCode().value()),
+                        "Error fetching genres: " + e.getResponseBodyAsString()));
+    }
+
+    // Get complete media from media ID in its presentation format, empty if media-handling doesn't know it
+    public Mono<RecommendationDto> getRecommendationByMediaId(Long mediaId, Jwt jwt) {
+
+        String token = jwt.getTokenValue();
+
+        return downstreamResilience.call(MediaHandlingClient.SERVICE_NAME, "/api/v1/mediahandling/media/{id}",
+                        Mono.defer(() -> webClient.get()
+                                .uri(resolveBaseUrl() + "/api/v1/mediahandling/media/{id}", mediaId)
+                                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                                .retrieve()
+                                .bodyToMono(RecommendationDto.class)))
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.empty());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.recommendations.clients;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Non-blocking counterpart of MediaPlayerClient for the reactive service.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendations.reactive.enabled", havingValue = "true")
+public class ReactiveMediaPlayerClient {
+
+    private final WebClient webClient;
+    private final LoadBalancerClient loadBalancer;
+    private final DownstreamResilience downstreamResilience;
+
+    @Autowired
+    public ReactiveMediaPlayerClient(WebClient.Builder builder,
+                                     LoadBalancerClient loadBalancer,
+                                     DownstreamResilience downstreamResilience) {
+        this.webClient = builder.build();
+        this.loadBalancer = loadBalancer;
+        this.downstreamResilience = downstreamResilience;
+    }
+
+    // Base method used for accessing the microservice
+    private String resolveBaseUrl() {
+        ServiceInstance instance = loadBalancer.choose(MediaPlayerClient.SERVICE_NAME);
+        if (instance == null) {
+            throw new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    MediaPlayerClient.SERVICE_NAME + " service is not available"
+            );
+        }
+        return instance.getUri().toString();
+    }
+
+    // User's ALL PLAYED media with playCount, likes and when it was last played, 503 while media-player is failing
+    public Mono<List<PlayedMediaDto>> getPlayedMedia(Jwt jwt) {
+
+        String token = jwt.getTokenValue();
+
+        return downstreamResilience.call(MediaPlayerClient.SERVICE_NAME, MediaPlayerClient.PLAYED_MEDIA_PATH,
+                        Mono.defer(() -> webClient.get()
+                                .uri(resolveBaseUrl() + MediaPlayerClient.PLAYED_MEDIA_PATH)
+                                .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
+                                .retrieve()
+                                .bodyToFlux(PlayedMediaDto.class)
+                                .collectList()),
+                        () -> Mono.fromSupplier(MediaPlayerClient::historyUnavailable))
+                .onErrorMap(WebClientResponseException.class, e -> e.getStatusCode().value() == 404
+                        ? new ResponseStatusException(HttpStatus.NOT_FOUND, "Media not found")
+                        : new ResponseStatusException(HttpStatus.valueOf(e.getStatusCode().value()),
+                                "Failed to fetch all played media: " + e.getResponseBodyAsString()));
+    }
+}
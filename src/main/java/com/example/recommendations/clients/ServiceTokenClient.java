@@ -0,0 +1,102 @@
+package com.example.recommendations.clients;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token of this service itself, from the client credentials grant, for work
+ * that runs in the background on behalf of no user, such as refreshing the
+ * catalog. The token is kept until shortly before it expires. Without a
+ * configured client there is no service token.
+ */
+@Component
+public class ServiceTokenClient {
+
+    private static final Logger log = LoggerFactory.getLogger(ServiceTokenClient.class);
+
+    // A token this close to expiring is fetched again, so it doesn't expire during a call
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private final RestClient restClient;
+    private final String tokenUri;
+    private final String clientId;
+    private final String clientSecret;
+    private final AtomicReference<Jwt> token = new AtomicReference<>();
+
+    @Autowired
+    public ServiceTokenClient(RestClient.Builder builder,
+                              @Value("${recommendations.service-token.token-uri:}") String tokenUri,
+                              @Value("${recommendations.service-token.client-id:}") String clientId,
+                              @Value("${recommendations.service-token.client-secret:}") String clientSecret) {
+        this.restClient = builder.clone().build();
+        this.tokenUri = tokenUri;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+    }
+
+    public boolean isConfigured() {
+        return !tokenUri.isBlank() && !clientId.isBlank();
+    }
+
+    // Current service token, empty if no client is configured or the token endpoint failed
+    public Optional<Jwt> token() {
+        if (!isConfigured()) {
+            return Optional.empty();
+        }
+        Jwt current = token.get();
+        if (current != null && current.getExpiresAt().minus(EXPIRY_MARGIN).isAfter(Instant.now())) {
+            return Optional.of(current);
+        }
+        try {
+            Jwt fetched = fetch();
+            token.set(fetched);
+            return Optional.of(fetched);
+        } catch (RestClientException | IllegalStateException e) {
+            log.warn("Failed to fetch a service token from {}: {}", tokenUri, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private Jwt fetch() {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("grant_type", "client_credentials");
+        form.add("client_id", clientId);
+        form.add("client_secret", clientSecret);
+
+        Map<String, Object> response = restClient.post()
+                .uri(tokenUri)
+                .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+                .body(form)
+                .retrieve()
+                .body(new ParameterizedTypeReference<Map<String, Object>>() {});
+        if (response == null || !(response.get("access_token") instanceof String accessToken)) {
+            throw new IllegalStateException("Token response without access_token");
+        }
+
+        // Only the token value is sent on, downstream services validate it themselves
+        long expiresIn = response.get("expires_in") instanceof Number seconds ? seconds.longValue() : 60;
+        Instant issuedAt = Instant.now();
+        return Jwt.withTokenValue(accessToken)
+                .header("alg", "none")
+                .subject(clientId)
+                .issuedAt(issuedAt)
+                .expiresAt(issuedAt.plusSeconds(expiresIn))
+                .build();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.recommendations.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * One pooled HTTP client shared by all blocking downstream clients, so calls
+ * reuse kept-alive connections instead of opening a new one every time.
+ * Pool usage is published as httpcomponents.httpclient.pool.* metrics.
+ */
+@Configuration
+public class DownstreamHttpConfig {
+
+    @Bean
+    public PoolingHttpClientConnectionManager downstreamConnectionManager(
+            @Value("${recommendations.http.max-connections:200}") int maxConnections,
+            @Value("${recommendations.http.max-connections-per-route:50}") int maxConnectionsPerRoute,
+            @Value("${recommendations.http.connect-timeout:1s}") Duration connectTimeout,
+            @Value("${recommendations.http.validate-after-inactivity:2s}") Duration validateAfterInactivity,
+            @Value("${recommendations.http.time-to-live:5m}") Duration timeToLive) {
+
+        // Connections are recycled after their time to live, so new instances of a service get traffic too
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setValidateAfterInactivity(TimeValue.of(validateAfterInactivity))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .build())
+                .build();
+    }
+
+    // Keep-alive follows the Keep-Alive header of the responses, gzip and deflate responses are decompressed
+    @Bean
+    public CloseableHttpClient downstreamHttpClient(PoolingHttpClientConnectionManager downstreamConnectionManager,
+                                                    @Value("${recommendations.http.idle-timeout:30s}") Duration idleTimeout) {
+        return HttpClients.custom()
+                .setConnectionManager(downstreamConnectionManager)
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .evictExpiredConnections()
+                .build();
+    }
+
+    @Bean
+    public MeterBinder downstreamConnectionPoolMetrics(PoolingHttpClientConnectionManager downstreamConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(downstreamConnectionManager, "downstream");
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.recommendations.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+@Configuration
+public class RecommendationsConfig {
+
+    // Random source for picking recommendations, tests pass a seeded one instead
+    @Bean
+    public RandomGenerator recommendationsRandom() {
+        // Shared by all threads, so the generator of the calling thread is looked up on every draw;
+        // a ThreadLocalRandom kept from one thread isn't seeded for the others and repeats per thread ID
+        return () -> ThreadLocalRandom.current().nextLong();
+    }
+}
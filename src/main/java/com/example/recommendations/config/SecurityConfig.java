@@ -0,0 +1,31 @@
+package com.example.recommendations.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.web.SecurityFilterChain;
+
+@Configuration
+public class SecurityConfig {
+
+    // Same as the default resource server setup, except health can be checked without a token,
+    // and only service tokens may scrape metrics, ask for recommendations of other users or send their events
+    @Bean
+    public SecurityFilterChain securityFilterChain(HttpSecurity http,
+                                                   @Value("${recommendations.batch.authority:SCOPE_recommendations.batch}") String batchAuthority,
+                                                   @Value("${recommendations.events.authority:SCOPE_recommendations.events}") String eventsAuthority,
+                                                   @Value("${recommendations.metrics.authority:SCOPE_recommendations.metrics}") String metricsAuthority) throws Exception {
+        http
+                .authorizeHttpRequests(requests -> requests
+                        .requestMatchers("/actuator/health/**").permitAll()
+                        .requestMatchers("/actuator/prometheus", "/actuator/metrics/**").hasAuthority(metricsAuthority)
+                        .requestMatchers(HttpMethod.POST, "/api/v1/recommendations/batch").hasAuthority(batchAuthority)
+                        .requestMatchers(HttpMethod.POST, "/api/v1/recommendations/events").hasAuthority(eventsAuthority)
+                        .anyRequest().authenticated())
+                .oauth2ResourceServer(oauth2 -> oauth2.jwt(Customizer.withDefaults()));
+        return http.build();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.recommendations.controllers;
+
+import com.example.recommendations.dtos.BatchRecommendationsRequestDto;
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.example.recommendations.dtos.RecommendationPageDto;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.dtos.UserRecommendationsDto;
+import com.example.recommendations.services.PlayEventQueue;
+import com.example.recommendations.services.RecommendationETags;
+import com.example.recommendations.services.ReactiveRecommendationsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Same endpoints as RecommendationsController, served by the reactive service.
+ * The request thread is released while downstream calls are in flight.
+ */
+@RestController
+@RequestMapping("/api/v1/recommendations")
+@ConditionalOnProperty(name = "recommendations.reactive.enabled", havingValue = "true")
+public class ReactiveRecommendationsController {
+
+    private final ReactiveRecommendationsService recommendationsService;
+    private final PlayEventQueue playEventQueue;
+    private final RecommendationETags recommendationETags;
+    private final int maxStreamLimit;
+    private final int maxBatchUsers;
+
+    @Autowired
+    public ReactiveRecommendationsController(ReactiveRecommendationsService recommendationsService,
+                                             PlayEventQueue playEventQueue,
+                                             RecommendationETags recommendationETags,
+                                             @Value("${recommendations.streaming.max-limit:100}") int maxStreamLimit,
+                                             @Value("${recommendations.batch.max-users:1000}") int maxBatchUsers) {
+        this.recommendationsService = recommendationsService;
+        this.playEventQueue = playEventQueue;
+        this.recommendationETags = recommendationETags;
+        this.maxStreamLimit = maxStreamLimit;
+        this.maxBatchUsers = maxBatchUsers;
+    }
+
+    // Keep endpoint for testing
+    @GetMapping("/gettopgenres")
+    public Mono<ResponseEntity<List<String>>> calculateTopGenres(@AuthenticationPrincipal Jwt jwt,
+                                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return recommendationETags.respondLater(jwt, "gettopgenres", ifNoneMatch,
+                () -> recommendationsService.calculateTopGenres(jwt));
+    }
+
+    // Keep endpoint for testing
+    @GetMapping("/recommendationids")
+    public Mono<ResponseEntity<List<Long>>> calculateRecommendationIds(@AuthenticationPrincipal Jwt jwt) {
+        return recommendationsService.getRecommendations(jwt).map(ResponseEntity::ok);
+    }
+
+    // Main endpoint of microservice, served from precomputed recommendations when that is enabled
+    // Polls answered with 304 while the user's profile and the catalog are unchanged
+    @GetMapping("/recommendations")
+    public Mono<ResponseEntity<List<RecommendationDto>>> calculateRecommendations(@AuthenticationPrincipal Jwt jwt,
+                                                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return recommendationETags.respondLater(jwt, "recommendations", ifNoneMatch,
+                () -> recommendationsService.getPrecomputedRecommendations(jwt)
+                        .map(PrecomputedRecommendationsDto::getRecommendations));
+    }
+
+    // Same as /recommendations, including when they were computed
+    @GetMapping("/precomputed")
+    public Mono<ResponseEntity<PrecomputedRecommendationsDto>> getPrecomputedRecommendations(@AuthenticationPrincipal Jwt jwt) {
+        return recommendationsService.getPrecomputedRecommendations(jwt).map(ResponseEntity::ok);
+    }
+
+    // Recommendations written one by one as their details arrive, as NDJSON or Server-Sent Events
+    @GetMapping(value = "/stream", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<RecommendationDto> streamRecommendations(@AuthenticationPrincipal Jwt jwt,
+                                                         @RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > maxStreamLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxStreamLimit);
+        }
+        return recommendationsService.streamRecommendations(jwt, limit);
+    }
+
+    // One page of a recommendation session; the first page starts one, pass nextCursor to get the next
+    @GetMapping("/session")
+    public Mono<ResponseEntity<RecommendationPageDto>> getRecommendationPage(@AuthenticationPrincipal Jwt jwt,
+                                                                             @RequestParam(required = false) String cursor,
+                                                                             @RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > maxStreamLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxStreamLimit);
+        }
+        return recommendationsService.getRecommendationPage(jwt, cursor, limit).map(ResponseEntity::ok);
+    }
+
+    // Recommended media IDs of many users in one call, for jobs with a service token; one NDJSON line per user as it is ready
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserRecommendationsDto> batchRecommendations(@AuthenticationPrincipal Jwt jwt,
+                                                             @RequestBody BatchRecommendationsRequestDto request) {
+        List<String> userIds = request.getUserIds();
+        if (userIds == null || userIds.isEmpty() || userIds.size() > maxBatchUsers) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "userIds must hold between 1 and " + maxBatchUsers + " users");
+        }
+        int limit = request.getLimit() == null ? 10 : request.getLimit();
+        if (limit < 1 || limit > maxStreamLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxStreamLimit);
+        }
+        return recommendationsService.getBatchRecommendations(userIds, jwt, limit);
+    }
+
+    // Play, like and dislike events from media-player, applied to the user profiles in the background
+    @PostMapping("/events")
+    public Mono<ResponseEntity<Void>> acceptEvents(@RequestBody List<PlayEventDto> events) {
+        if (!playEventQueue.offer(events)) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many events waiting, try again later");
+        }
+        return Mono.just(ResponseEntity.accepted().build());
+    }
+}
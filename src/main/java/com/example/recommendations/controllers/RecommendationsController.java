@@ -1,33 +1,71 @@
 package com.example.recommendations.controllers;
 
+import com.example.recommendations.dtos.BatchRecommendationsRequestDto;
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.example.recommendations.dtos.RecommendationPageDto;
 import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.services.PlayEventQueue;
+import com.example.recommendations.services.RecommendationETags;
 import com.example.recommendations.services.RecommendationsService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/v1/recommendations")
+@ConditionalOnProperty(name = "recommendations.reactive.enabled", havingValue = "false", matchIfMissing = true)
 public class RecommendationsController {
 
     private final RecommendationsService recommendationsService;
+    private final PlayEventQueue playEventQueue;
+    private final RecommendationETags recommendationETags;
+    private final ObjectMapper objectMapper;
+    private final int maxStreamLimit;
+    private final int maxBatchUsers;
 
     @Autowired
-    public RecommendationsController(RecommendationsService recommendationsService) {
+    public RecommendationsController(RecommendationsService recommendationsService,
+                                     PlayEventQueue playEventQueue,
+                                     RecommendationETags recommendationETags,
+                                     ObjectMapper objectMapper,
+                                     @Value("${recommendations.streaming.max-limit:100}") int maxStreamLimit,
+                                     @Value("${recommendations.batch.max-users:1000}") int maxBatchUsers) {
         this.recommendationsService = recommendationsService;
+        this.playEventQueue = playEventQueue;
+        this.recommendationETags = recommendationETags;
+        this.objectMapper = objectMapper;
+        this.maxStreamLimit = maxStreamLimit;
+        this.maxBatchUsers = maxBatchUsers;
     }
 
     // Keep endpoint for testing
     @GetMapping("/gettopgenres")
-    public ResponseEntity<List<String>> calculateTopGenres(@AuthenticationPrincipal Jwt jwt) {
-        return new ResponseEntity<>(recommendationsService.calculateTopGenres(jwt), HttpStatus.OK);
+    public ResponseEntity<List<String>> calculateTopGenres(@AuthenticationPrincipal Jwt jwt,
+                                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return recommendationETags.respond(jwt, "gettopgenres", ifNoneMatch,
+                () -> recommendationsService.calculateTopGenres(jwt));
     }
 
     // Keep endpoint for testing
@@ -36,9 +74,77 @@ public class RecommendationsController {
         return new ResponseEntity<>(recommendationsService.getRecommendations(jwt), HttpStatus.OK);
     }
 
-    // Main endpoint of microservice
+    // Main endpoint of microservice, served from precomputed recommendations when that is enabled
+    // Polls answered with 304 while the user's profile and the catalog are unchanged
     @GetMapping("/recommendations")
-    public ResponseEntity<List<RecommendationDto>> calculateRecommendations(@AuthenticationPrincipal Jwt jwt) {
-        return new ResponseEntity<>(recommendationsService.formatRecommendations(jwt), HttpStatus.OK);
+    public ResponseEntity<List<RecommendationDto>> calculateRecommendations(@AuthenticationPrincipal Jwt jwt,
+                                                                            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return recommendationETags.respond(jwt, "recommendations", ifNoneMatch,
+                () -> recommendationsService.getPrecomputedRecommendations(jwt).getRecommendations());
+    }
+
+    // Same as /recommendations, including when they were computed
+    @GetMapping("/precomputed")
+    public ResponseEntity<PrecomputedRecommendationsDto> getPrecomputedRecommendations(@AuthenticationPrincipal Jwt jwt) {
+        return new ResponseEntity<>(recommendationsService.getPrecomputedRecommendations(jwt), HttpStatus.OK);
+    }
+
+    // Recommendations written one by one as their details arrive, as NDJSON or Server-Sent Events
+    @GetMapping(value = "/stream", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<RecommendationDto> streamRecommendations(@AuthenticationPrincipal Jwt jwt,
+                                                         @RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > maxStreamLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxStreamLimit);
+        }
+        return recommendationsService.streamRecommendations(jwt, limit);
+    }
+
+    // One page of a recommendation session; the first page starts one, pass nextCursor to get the next
+    @GetMapping("/session")
+    public ResponseEntity<RecommendationPageDto> getRecommendationPage(@AuthenticationPrincipal Jwt jwt,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > maxStreamLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxStreamLimit);
+        }
+        return new ResponseEntity<>(recommendationsService.getRecommendationPage(jwt, cursor, limit), HttpStatus.OK);
+    }
+
+    // Recommended media IDs of many users in one call, for jobs with a service token; one NDJSON line per user as it is ready
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> batchRecommendations(@AuthenticationPrincipal Jwt jwt,
+                                                                      @RequestBody BatchRecommendationsRequestDto request) {
+        List<String> userIds = request.getUserIds();
+        if (userIds == null || userIds.isEmpty() || userIds.size() > maxBatchUsers) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "userIds must hold between 1 and " + maxBatchUsers + " users");
+        }
+        int limit = request.getLimit() == null ? 10 : request.getLimit();
+        if (limit < 1 || limit > maxStreamLimit) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "limit must be between 1 and " + maxStreamLimit);
+        }
+        // Written and flushed line by line, the service hands over one user at a time
+        StreamingResponseBody body = out -> recommendationsService.getBatchRecommendations(userIds, jwt, limit, user -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(user));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // Play, like and dislike events from media-player, applied to the user profiles in the background
+    @PostMapping("/events")
+    public ResponseEntity<Void> acceptEvents(@RequestBody List<PlayEventDto> events) {
+        if (!playEventQueue.offer(events)) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many events waiting, try again later");
+        }
+        return ResponseEntity.accepted().build();
     }
 }
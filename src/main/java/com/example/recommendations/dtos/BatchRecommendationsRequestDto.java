@@ -0,0 +1,35 @@
+package com.example.recommendations.dtos;
+
+import java.util.List;
+
+/**
+ * Users to compute recommendations for in one batch call, and how many each.
+ */
+public class BatchRecommendationsRequestDto {
+
+    private List<String> userIds;
+    private Integer limit;
+
+    public BatchRecommendationsRequestDto() { }
+
+    public BatchRecommendationsRequestDto(List<String> userIds, Integer limit) {
+        this.userIds = userIds;
+        this.limit = limit;
+    }
+
+    public List<String> getUserIds() {
+        return userIds;
+    }
+
+    public void setUserIds(List<String> userIds) {
+        this.userIds = userIds;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.recommendations.dtos;
+
+import java.time.Instant;
+
+/**
+ * Something a user did with a media in media-player: played it, or changed
+ * whether they like it. Sent to /events as it happens.
+ */
+public class PlayEventDto {
+
+    public enum Type {
+        PLAYED,
+        LIKED,
+        DISLIKED,
+        // Neither liked nor disliked anymore
+        CLEARED
+    }
+
+    private String userId;
+    private Long mediaId;
+    private Type type;
+    // Plays added by a PLAYED event, 1 when missing
+    private Long playCount;
+    private Instant occurredAt;
+
+    public PlayEventDto() { }
+
+    public PlayEventDto(String userId, Long mediaId, Type type, Long playCount, Instant occurredAt) {
+        this.userId = userId;
+        this.mediaId = mediaId;
+        this.type = type;
+        this.playCount = playCount;
+        this.occurredAt = occurredAt;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public Long getMediaId() {
+        return mediaId;
+    }
+
+    public void setMediaId(Long mediaId) {
+        this.mediaId = mediaId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Long getPlayCount() {
+        return playCount;
+    }
+
+    public void setPlayCount(Long playCount) {
+        this.playCount = playCount;
+    }
+
+    public Instant getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(Instant occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+}
@@ -1,11 +1,15 @@
 package com.example.recommendations.dtos;
 
+import java.time.Instant;
+
 public class PlayedMediaDto {
 
     private Long mediaId;
     private Long playCount;
     private boolean liked;
     private boolean disliked;
+    // Not sent by every media-player version, null when unknown
+    private Instant lastPlayed;
 
     public PlayedMediaDto() {}
 
@@ -40,4 +44,12 @@ public class PlayedMediaDto {
     public void setDisliked(boolean disliked) {
         this.disliked = disliked;
     }
+
+    public Instant getLastPlayed() {
+        return lastPlayed;
+    }
+
+    public void setLastPlayed(Instant lastPlayed) {
+        this.lastPlayed = lastPlayed;
+    }
 }
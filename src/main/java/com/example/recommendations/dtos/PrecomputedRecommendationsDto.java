@@ -0,0 +1,36 @@
+package com.example.recommendations.dtos;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Recommendations of a user together with the time they were computed.
+ */
+public class PrecomputedRecommendationsDto {
+
+    private List<RecommendationDto> recommendations;
+    private Instant computedAt;
+
+    public PrecomputedRecommendationsDto() { }
+
+    public PrecomputedRecommendationsDto(List<RecommendationDto> recommendations, Instant computedAt) {
+        this.recommendations = recommendations;
+        this.computedAt = computedAt;
+    }
+
+    public List<RecommendationDto> getRecommendations() {
+        return recommendations;
+    }
+
+    public void setRecommendations(List<RecommendationDto> recommendations) {
+        this.recommendations = recommendations;
+    }
+
+    public Instant getComputedAt() {
+        return computedAt;
+    }
+
+    public void setComputedAt(Instant computedAt) {
+        this.computedAt = computedAt;
+    }
+}
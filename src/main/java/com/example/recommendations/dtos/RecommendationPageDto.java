@@ -0,0 +1,36 @@
+package com.example.recommendations.dtos;
+
+import java.util.List;
+
+/**
+ * One page of a recommendation session. nextCursor fetches the page after it
+ * and is null once there is nothing more to recommend.
+ */
+public class RecommendationPageDto {
+
+    private List<RecommendationDto> recommendations;
+    private String nextCursor;
+
+    public RecommendationPageDto() { }
+
+    public RecommendationPageDto(List<RecommendationDto> recommendations, String nextCursor) {
+        this.recommendations = recommendations;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<RecommendationDto> getRecommendations() {
+        return recommendations;
+    }
+
+    public void setRecommendations(List<RecommendationDto> recommendations) {
+        this.recommendations = recommendations;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
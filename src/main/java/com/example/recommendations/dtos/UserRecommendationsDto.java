@@ -0,0 +1,46 @@
+package com.example.recommendations.dtos;
+
+import java.util.List;
+
+/**
+ * Recommended media IDs of one user of a batch call. If they couldn't be
+ * computed, recommendationIds is empty and error says why.
+ */
+public class UserRecommendationsDto {
+
+    private String userId;
+    private List<Long> recommendationIds;
+    private String error;
+
+    public UserRecommendationsDto() { }
+
+    public UserRecommendationsDto(String userId, List<Long> recommendationIds, String error) {
+        this.userId = userId;
+        this.recommendationIds = recommendationIds;
+        this.error = error;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public List<Long> getRecommendationIds() {
+        return recommendationIds;
+    }
+
+    public void setRecommendationIds(List<Long> recommendationIds) {
+        this.recommendationIds = recommendationIds;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.clients.ServiceTokenClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the catalog snapshot shared by all requests. Requests only read the
+ * current snapshot, a new one is built in the background and swapped in at once.
+ * Media-handling requires a token even for catalog data. The scheduled refresh
+ * uses the service's own token; without one, a request that finds the snapshot
+ * older than refresh-interval refreshes it in the background with its own token,
+ * which is not kept afterwards. An empty catalog is only loaded again after
+ * empty-retry-after, so it doesn't cost one load per request.
+ * If an index file is configured, every new snapshot is written to it and the
+ * last one is read back at startup, then reconciled on the first request.
+ */
+@Component
+public class CatalogCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogCache.class);
+
+    private final MediaHandlingClient mediaHandlingClient;
+    private final DownstreamExecutor downstreamExecutor;
+    private final ServiceTokenClient serviceTokenClient;
+    private final AtomicReference<CatalogSnapshot> current = new AtomicReference<>(CatalogSnapshot.empty());
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final Path indexFile;
+    private final Duration refreshInterval;
+    private final Duration emptyRetryAfter;
+    // False while serving a snapshot read from the index file that was not compared with media-handling yet
+    private final AtomicBoolean reconciled = new AtomicBoolean(true);
+    // Until when an empty catalog from media-handling is served without loading it again
+    private volatile Instant emptyUntil = Instant.MIN;
+
+    @Autowired
+    public CatalogCache(MediaHandlingClient mediaHandlingClient,
+                        DownstreamExecutor downstreamExecutor,
+                        ServiceTokenClient serviceTokenClient,
+                        @Value("${recommendations.catalog.index-file:}") String indexFile,
+                        @Value("${recommendations.catalog.refresh-interval:PT5M}") Duration refreshInterval,
+                        @Value("${recommendations.catalog.empty-retry-after:30s}") Duration emptyRetryAfter) {
+        this.mediaHandlingClient = mediaHandlingClient;
+        this.downstreamExecutor = downstreamExecutor;
+        this.serviceTokenClient = serviceTokenClient;
+        this.indexFile = indexFile.isBlank() ? null : Path.of(indexFile);
+        this.refreshInterval = refreshInterval;
+        this.emptyRetryAfter = emptyRetryAfter;
+        loadIndexFile();
+    }
+
+    // Current snapshot, loaded with the caller's token if there is none yet
+    public CatalogSnapshot snapshot(Jwt jwt) {
+        CatalogSnapshot snapshot = current.get();
+        if (!snapshot.isEmpty()) {
+            if (!reconciled.get() && reconciled.compareAndSet(false, true)) {
+                refreshInBackground(jwt);
+            } else if (!serviceTokenClient.isConfigured()
+                    && snapshot.loadedAt().plus(refreshInterval).isBefore(Instant.now())) {
+                refreshInBackground(jwt);
+            }
+            return snapshot;
+        }
+
+        if (Instant.now().isBefore(emptyUntil)) {
+            return snapshot;
+        }
+        refreshLock.lock();
+        try {
+            // Another request may have loaded it while we were waiting
+            if (current.get().isEmpty() && !Instant.now().isBefore(emptyUntil)) {
+                CatalogSnapshot loaded = load(jwt);
+                swapIn(loaded);
+                if (loaded.isEmpty()) {
+                    emptyUntil = Instant.now().plus(emptyRetryAfter);
+                }
+            }
+            return current.get();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    // Current snapshot without loading anything, may be empty
+    public CatalogSnapshot current() {
+        return current.get();
+    }
+
+    @Scheduled(fixedDelayString = "${recommendations.catalog.refresh-interval:PT5M}",
+            initialDelayString = "${recommendations.catalog.refresh-interval:PT5M}")
+    public void refresh() {
+        serviceTokenClient.token().ifPresentOrElse(this::refresh,
+                () -> log.debug("Skipping scheduled catalog refresh, no service token; requests refresh it when due"));
+    }
+
+    // Refreshes with the service token if there is one, otherwise once with the caller's token
+    private void refreshInBackground(Jwt jwt) {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Jwt token = serviceTokenClient.token().orElse(jwt);
+        Thread.startVirtualThread(() -> {
+            try {
+                refresh(token);
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    private void refresh(Jwt jwt) {
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            swapIn(load(jwt));
+        } catch (RuntimeException e) {
+            log.warn("Catalog refresh failed, keeping snapshot from {}", current.get().loadedAt(), e);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private void swapIn(CatalogSnapshot snapshot) {
+        CatalogSnapshot previous = current.getAndSet(snapshot);
+        if (previous.version() == snapshot.version()) {
+            return;
+        }
+
+        log.info("Catalog refreshed, {} genres and {} media", snapshot.genreCount(), snapshot.mediaCount());
+        if (indexFile != null) {
+            try {
+                CatalogIndexFile.write(snapshot, indexFile);
+            } catch (IOException e) {
+                log.warn("Failed to write catalog index file {}", indexFile, e);
+            }
+        }
+    }
+
+    private void loadIndexFile() {
+        if (indexFile == null) {
+            return;
+        }
+        try {
+            Optional<CatalogSnapshot> snapshot = CatalogIndexFile.read(indexFile);
+            if (snapshot.isPresent()) {
+                current.set(snapshot.get());
+                reconciled.set(false);
+                log.info("Catalog read from {}, loaded from media-handling at {}", indexFile, snapshot.get().loadedAt());
+            } else if (Files.exists(indexFile)) {
+                log.warn("Ignoring invalid catalog index file {}", indexFile);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read catalog index file {}", indexFile, e);
+        }
+    }
+
+    // Fetches the whole catalog, media of every genre in parallel and once even if several names share a genre
+    private CatalogSnapshot load(Jwt jwt) {
+        DownstreamCalls calls = downstreamExecutor.newCalls();
+
+        CompletableFuture<Map<String, Long>> genreIdsFuture = calls.submit(MediaHandlingClient.SERVICE_NAME,
+                "/api/v1/mediahandling/genres", jwt, () -> mediaHandlingClient.getGenreIdsByName(jwt));
+        CompletableFuture<long[]> mediaIdsFuture = calls.submit(MediaHandlingClient.SERVICE_NAME,
+                "/api/v1/mediahandling/media", jwt, () -> mediaHandlingClient.getAllMediaIds(jwt));
+
+        Map<String, Long> genreIdsByName = calls.await(genreIdsFuture);
+
+        Map<Long, CompletableFuture<long[]>> mediaByGenreFutures = new HashMap<>();
+        for (Long genreId : genreIdsByName.values()) {
+            mediaByGenreFutures.put(genreId, calls.submit(MediaHandlingClient.SERVICE_NAME,
+                    "/api/v1/mediahandling/mediabygenre/" + genreId, jwt,
+                    () -> mediaHandlingClient.getMediaIdsByGenreId(genreId, jwt)));
+        }
+
+        Map<Long, long[]> mediaByGenre = new HashMap<>();
+        for (Map.Entry<Long, CompletableFuture<long[]>> entry : mediaByGenreFutures.entrySet()) {
+            mediaByGenre.put(entry.getKey(), calls.await(entry.getValue()));
+        }
+
+        return CatalogSnapshot.of(mediaByGenre, calls.await(mediaIdsFuture), genreIdsByName, Instant.now());
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.recommendations.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Binary file holding a CatalogSnapshot, so a new instance can serve from the
+ * last known catalog right after startup.
+ *
+ * Layout, little endian: magic, format, snapshot version, load time, the
+ * counts, then the sorted genre IDs, the per-genre offsets, the media IDs of
+ * all genres, all media IDs and finally the genre names. The snapshot needs
+ * the arrays on the heap anyway, so the file is read in one go and the arrays
+ * are bulk copied out of it. Every count and length is checked against the
+ * bytes left before anything is allocated, a damaged file is only ignored.
+ */
+public final class CatalogIndexFile {
+
+    private static final int MAGIC = 0x52434154; // "RCAT"
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 * 4;
+
+    private CatalogIndexFile() { }
+
+    // Writes to a temporary file first and moves it in place, so readers never see half a file
+    public static void write(CatalogSnapshot snapshot, Path file) throws IOException {
+        long[] genreIds = snapshot.genreIds();
+        int[] genreOffsets = snapshot.genreOffsets();
+        long[] genreMediaIds = snapshot.genreMediaIds();
+        long[] mediaIds = snapshot.mediaIds();
+        Map<String, Long> genreIdsByName = snapshot.genreIdsByName();
+
+        int namesBytes = 0;
+        for (String name : genreIdsByName.keySet()) {
+            namesBytes += 8 + 4 + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        long size = HEADER_BYTES
+                + 8L * genreIds.length
+                + 4L * genreOffsets.length
+                + 8L * genreMediaIds.length
+                + 8L * mediaIds.length
+                + namesBytes;
+
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "catalog", ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(FORMAT);
+            buffer.putLong(snapshot.version());
+            buffer.putLong(snapshot.loadedAt().toEpochMilli());
+            buffer.putInt(genreIds.length);
+            buffer.putInt(genreMediaIds.length);
+            buffer.putInt(mediaIds.length);
+            buffer.putInt(genreIdsByName.size());
+
+            putLongs(buffer, genreIds);
+            for (int offset : genreOffsets) {
+                buffer.putInt(offset);
+            }
+            putLongs(buffer, genreMediaIds);
+            putLongs(buffer, mediaIds);
+
+            for (Map.Entry<String, Long> entry : genreIdsByName.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                buffer.putLong(entry.getValue());
+                buffer.putInt(name.length);
+                buffer.put(name);
+            }
+            buffer.force();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Snapshot stored in the file, empty if there is no file or it is not a valid index
+    public static Optional<CatalogSnapshot> read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        long fileSize = Files.size(file);
+        // Larger than any array, so it can't be a file written by this class
+        if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE - 8) {
+            return Optional.empty();
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+                return Optional.empty();
+            }
+            long version = buffer.getLong();
+            Instant loadedAt = Instant.ofEpochMilli(buffer.getLong());
+            int genreCount = buffer.getInt();
+            int genreMediaCount = buffer.getInt();
+            int mediaCount = buffer.getInt();
+            int nameCount = buffer.getInt();
+
+            long arraysBytes = 8L * genreCount + 4L * (genreCount + 1) + 8L * genreMediaCount + 8L * mediaCount;
+            // Every name takes at least its genre ID and its length
+            long namesBytes = (8L + 4L) * nameCount;
+            if (genreCount < 0 || genreMediaCount < 0 || mediaCount < 0 || nameCount < 0
+                    || arraysBytes + namesBytes > buffer.remaining()) {
+                return Optional.empty();
+            }
+
+            long[] genreIds = getLongs(buffer, genreCount);
+            int[] genreOffsets = new int[genreCount + 1];
+            buffer.asIntBuffer().get(genreOffsets);
+            buffer.position(buffer.position() + 4 * genreOffsets.length);
+            long[] genreMediaIds = getLongs(buffer, genreMediaCount);
+            long[] mediaIds = getLongs(buffer, mediaCount);
+
+            Map<String, Long> genreIdsByName = new HashMap<>();
+            for (int i = 0; i < nameCount; i++) {
+                long genreId = buffer.getLong();
+                int nameLength = buffer.getInt();
+                if (nameLength < 0 || nameLength > buffer.remaining()) {
+                    return Optional.empty();
+                }
+                genreIdsByName.put(new String(buffer.array(), buffer.position(), nameLength, StandardCharsets.UTF_8),
+                        genreId);
+                buffer.position(buffer.position() + nameLength);
+            }
+            if (buffer.hasRemaining()) {
+                return Optional.empty();
+            }
+
+            CatalogSnapshot snapshot = new CatalogSnapshot(genreIds, genreOffsets, genreMediaIds, mediaIds,
+                    genreIdsByName, loadedAt);
+
+            // A mismatch means the file was damaged after it was written
+            return snapshot.version() == version ? Optional.of(snapshot) : Optional.empty();
+
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void putLongs(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().put(values);
+        buffer.position(buffer.position() + 8 * values.length);
+    }
+
+    private static long[] getLongs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.util.LongSource;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Immutable view of the media-handling catalog: all genre IDs, the media IDs of
+ * every genre and all media IDs, kept as sorted primitive arrays.
+ * The media of genre at index i are found in genreMediaIds between
+ * genreOffsets[i] and genreOffsets[i + 1].
+ */
+public final class CatalogSnapshot {
+
+    private static final CatalogSnapshot EMPTY = new CatalogSnapshot(
+            new long[0], new int[]{0}, new long[0], new long[0], Map.of(), Instant.EPOCH);
+
+    private final long[] genreIds;
+    private final int[] genreOffsets;
+    private final long[] genreMediaIds;
+    private final long[] mediaIds;
+    private final Map<String, Long> genreIdsByName;
+    private final Instant loadedAt;
+    private final long version;
+
+    // Reverse index, genres of media at index i are at mediaGenreIndexes[mediaGenreOffsets[i]..mediaGenreOffsets[i + 1])
+    private final int[] mediaGenreOffsets;
+    private final int[] mediaGenreIndexes;
+
+    CatalogSnapshot(long[] genreIds,
+                    int[] genreOffsets,
+                    long[] genreMediaIds,
+                    long[] mediaIds,
+                    Map<String, Long> genreIdsByName,
+                    Instant loadedAt) {
+        this.genreIds = genreIds;
+        this.genreOffsets = genreOffsets;
+        this.genreMediaIds = genreMediaIds;
+        this.mediaIds = mediaIds;
+        this.genreIdsByName = Map.copyOf(genreIdsByName);
+        this.loadedAt = loadedAt;
+        this.version = computeVersion();
+
+        // Pack (media index, genre index) pairs into longs so they can be sorted by media without boxing
+        long[] pairs = new long[genreMediaIds.length];
+        int pairCount = 0;
+        for (int genreIndex = 0; genreIndex < genreIds.length; genreIndex++) {
+            for (int i = genreOffsets[genreIndex]; i < genreOffsets[genreIndex + 1]; i++) {
+                int mediaIndex = Arrays.binarySearch(mediaIds, genreMediaIds[i]);
+                pairs[pairCount++] = ((long) mediaIndex << 32) | genreIndex;
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        this.mediaGenreOffsets = new int[mediaIds.length + 1];
+        this.mediaGenreIndexes = new int[pairCount];
+        for (int i = 0; i < pairCount; i++) {
+            mediaGenreOffsets[(int) (pairs[i] >>> 32) + 1]++;
+            mediaGenreIndexes[i] = (int) pairs[i];
+        }
+        for (int i = 0; i < mediaIds.length; i++) {
+            mediaGenreOffsets[i + 1] += mediaGenreOffsets[i];
+        }
+    }
+
+    public static CatalogSnapshot empty() {
+        return EMPTY;
+    }
+
+    // Builds a snapshot from the responses of media-handling
+    public static CatalogSnapshot of(Map<Long, ? extends Collection<Long>> mediaByGenre,
+                                     Collection<Long> allMediaIds,
+                                     Map<String, Long> genreIdsByName,
+                                     Instant loadedAt) {
+
+        Map<Long, long[]> mediaArraysByGenre = new HashMap<>();
+        mediaByGenre.forEach((genreId, media) -> mediaArraysByGenre.put(genreId, toArray(media)));
+        return of(mediaArraysByGenre, toArray(allMediaIds), genreIdsByName, loadedAt);
+    }
+
+    // Same as above from ID arrays as read from the responses, the arrays are sorted in place
+    public static CatalogSnapshot of(Map<Long, long[]> mediaByGenre,
+                                     long[] allMediaIds,
+                                     Map<String, Long> genreIdsByName,
+                                     Instant loadedAt) {
+
+        long[] genreIds = toSortedDistinct(mediaByGenre.keySet());
+
+        int[] genreOffsets = new int[genreIds.length + 1];
+        List<long[]> mediaPerGenre = new ArrayList<>(genreIds.length);
+        for (int i = 0; i < genreIds.length; i++) {
+            long[] media = sortedDistinct(mediaByGenre.getOrDefault(genreIds[i], new long[0]));
+            mediaPerGenre.add(media);
+            genreOffsets[i + 1] = genreOffsets[i] + media.length;
+        }
+
+        long[] genreMediaIds = new long[genreOffsets[genreIds.length]];
+        for (int i = 0; i < genreIds.length; i++) {
+            System.arraycopy(mediaPerGenre.get(i), 0, genreMediaIds, genreOffsets[i], mediaPerGenre.get(i).length);
+        }
+
+        // Media listed under a genre but missing from the media list still belong to the catalog
+        long[] listedMedia = sortedDistinct(allMediaIds == null ? new long[0] : allMediaIds);
+        long[] mediaIds = Arrays.copyOf(listedMedia, listedMedia.length + genreMediaIds.length);
+        System.arraycopy(genreMediaIds, 0, mediaIds, listedMedia.length, genreMediaIds.length);
+
+        return new CatalogSnapshot(genreIds, genreOffsets, genreMediaIds, sortedDistinct(mediaIds),
+                genreIdsByName, loadedAt);
+    }
+
+    public boolean isEmpty() {
+        return genreIds.length == 0 && mediaIds.length == 0;
+    }
+
+    // Changes whenever the content of the catalog changes, equal on every instance for equal content
+    public long version() {
+        return version;
+    }
+
+    public Instant loadedAt() {
+        return loadedAt;
+    }
+
+    public int genreCount() {
+        return genreIds.length;
+    }
+
+    public long genreIdAt(int genreIndex) {
+        return genreIds[genreIndex];
+    }
+
+    // Position of a genre in this snapshot, or -1 if the genre is unknown
+    public int genreIndex(long genreId) {
+        int index = Arrays.binarySearch(genreIds, genreId);
+        return index >= 0 ? index : -1;
+    }
+
+    public Long genreIdByName(String name) {
+        return genreIdsByName.get(name);
+    }
+
+    public int mediaCount(int genreIndex) {
+        return genreOffsets[genreIndex + 1] - genreOffsets[genreIndex];
+    }
+
+    public long mediaIdAt(int genreIndex, int position) {
+        return genreMediaIds[genreOffsets[genreIndex] + position];
+    }
+
+    public int mediaCount() {
+        return mediaIds.length;
+    }
+
+    public long mediaIdAt(int mediaIndex) {
+        return mediaIds[mediaIndex];
+    }
+
+    // Position of a media in this snapshot, or -1 if the media is unknown
+    public int mediaIndex(long mediaId) {
+        int index = Arrays.binarySearch(mediaIds, mediaId);
+        return index >= 0 ? index : -1;
+    }
+
+    public boolean containsMedia(long mediaId) {
+        return mediaIndex(mediaId) >= 0;
+    }
+
+    // All media of the catalog as one sequence
+    public LongSource allMedia() {
+        return LongSource.of(mediaIds);
+    }
+
+    // Media of the given genres as one sequence, without copying them; media in several genres occur several times
+    public LongSource mediaOfGenres(int[] genreIndexes) {
+        int[] starts = new int[genreIndexes.length + 1];
+        for (int i = 0; i < genreIndexes.length; i++) {
+            starts[i + 1] = starts[i] + mediaCount(genreIndexes[i]);
+        }
+
+        return new LongSource() {
+            @Override
+            public int size() {
+                return starts[genreIndexes.length];
+            }
+
+            @Override
+            public long get(int index) {
+                int found = Arrays.binarySearch(starts, index);
+                // Skip genres without media, they share their start with the next genre
+                int genre = found >= 0 ? found : -found - 2;
+                while (starts[genre + 1] == starts[genre]) {
+                    genre++;
+                }
+                return mediaIdAt(genreIndexes[genre], index - starts[genre]);
+            }
+        };
+    }
+
+    // Genre IDs a media belongs to, empty if the media is unknown
+    public long[] genreIdsOf(long mediaId) {
+        int mediaIndex = mediaIndex(mediaId);
+        if (mediaIndex < 0) {
+            return new long[0];
+        }
+        int from = mediaGenreOffsets[mediaIndex];
+        long[] result = new long[mediaGenreOffsets[mediaIndex + 1] - from];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = genreIds[mediaGenreIndexes[from + i]];
+        }
+        return result;
+    }
+
+    // Genre indexes of the media at the given position, empty if it has none
+    public int[] genreIndexesOf(int mediaIndex) {
+        return Arrays.copyOfRange(mediaGenreIndexes, mediaGenreOffsets[mediaIndex], mediaGenreOffsets[mediaIndex + 1]);
+    }
+
+    // Whether the media at the given position belongs to any of the given genre indexes, without copying
+    public boolean inAnyGenre(int mediaIndex, BitSet genreIndexes) {
+        for (int i = mediaGenreOffsets[mediaIndex]; i < mediaGenreOffsets[mediaIndex + 1]; i++) {
+            if (genreIndexes.get(mediaGenreIndexes[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Raw arrays for CatalogIndexFile, must not be modified
+
+    long[] genreIds() {
+        return genreIds;
+    }
+
+    int[] genreOffsets() {
+        return genreOffsets;
+    }
+
+    long[] genreMediaIds() {
+        return genreMediaIds;
+    }
+
+    long[] mediaIds() {
+        return mediaIds;
+    }
+
+    Map<String, Long> genreIdsByName() {
+        return genreIdsByName;
+    }
+
+    private long computeVersion() {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, genreIds);
+        hash = mix(hash, genreMediaIds);
+        hash = mix(hash, mediaIds);
+        for (int offset : genreOffsets) {
+            hash = (hash ^ offset) * 0x100000001b3L;
+        }
+        // Names too, /gettopgenres returns them; sorted, as the map has no order
+        for (String name : new TreeSet<>(genreIdsByName.keySet())) {
+            hash = (hash ^ name.hashCode()) * 0x100000001b3L;
+            hash = (hash ^ genreIdsByName.get(name)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long[] values) {
+        for (long value : values) {
+            hash = (hash ^ value) * 0x100000001b3L;
+        }
+        return (hash ^ values.length) * 0x100000001b3L;
+    }
+
+    private static long[] toSortedDistinct(Collection<Long> values) {
+        return sortedDistinct(toArray(values));
+    }
+
+    private static long[] toArray(Collection<Long> values) {
+        if (values == null) {
+            return new long[0];
+        }
+        long[] result = new long[values.size()];
+        int i = 0;
+        for (Long value : values) {
+            result[i++] = value;
+        }
+        return result;
+    }
+
+    private static long[] sortedDistinct(long[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (size == 0 || values[size - 1] != values[i]) {
+                values[size++] = values[i];
+            }
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.util.LongArrayList;
+import com.example.recommendations.util.LongHashSet;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+/**
+ * "Played X, also played Y" counts learned from the play histories the service
+ * already fetches. Every media keeps a sparse list of its most co-played media,
+ * updated as histories are observed. Lists hold at most twice the configured
+ * number of neighbors and are pruned back to the strongest ones when full, and
+ * only a bounded number of media get a list at all; when all are taken, the half
+ * with the fewest co-plays is dropped to make room.
+ * A user's media are only counted the first time they show up in a history, the
+ * media already counted per user are remembered for a bounded number of users.
+ * Histories are counted by one virtual thread off the request path, those that
+ * don't fit in the bounded queue are not counted. Only the co-occurrence
+ * strategy reads the index, so it is off unless enabled: nothing is counted or
+ * kept and no thread is started.
+ */
+@Component
+public class CoOccurrenceIndex implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CoOccurrenceIndex.class);
+
+    private final Map<Long, Neighbors> neighborsByMedia = new ConcurrentHashMap<>();
+    private final Cache<String, LongHashSet> countedMediaByUser;
+    private final BlockingQueue<Observation> observations;
+    // Started once the bean is constructed, so the thread never sees it half built
+    private Thread counter;
+    private final boolean enabled;
+    private final int neighbors;
+    private final int maxMedia;
+    private final int maxHistory;
+    private final int seedTracks;
+
+    @Autowired
+    public CoOccurrenceIndex(@Value("${recommendations.co-occurrence.enabled:false}") boolean enabled,
+                             @Value("${recommendations.co-occurrence.neighbors:20}") int neighbors,
+                             @Value("${recommendations.co-occurrence.max-media:50000}") int maxMedia,
+                             @Value("${recommendations.co-occurrence.max-history:200}") int maxHistory,
+                             @Value("${recommendations.co-occurrence.max-users:10000}") long maxUsers,
+                             @Value("${recommendations.co-occurrence.seed-tracks:20}") int seedTracks,
+                             @Value("${recommendations.co-occurrence.queue-capacity:1000}") int queueCapacity) {
+        this.enabled = enabled;
+        this.neighbors = neighbors;
+        this.maxMedia = maxMedia;
+        this.maxHistory = maxHistory;
+        this.seedTracks = seedTracks;
+        this.countedMediaByUser = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .build();
+        this.observations = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled && counter == null) {
+            counter = Thread.ofVirtual().name("co-occurrence").start(this::consume);
+        }
+    }
+
+    // Queues the history to be counted in the background, false if the queue is full and it was dropped
+    public boolean observe(String userId, List<PlayedMediaDto> playedMedia) {
+        if (!enabled || userId == null || playedMedia.size() < 2) {
+            return false;
+        }
+        return observations.offer(new Observation(userId, playedMedia));
+    }
+
+    // Counts every pair of the user's most played media that wasn't counted for this user before
+    public void count(String userId, List<PlayedMediaDto> playedMedia) {
+        if (!enabled || userId == null || playedMedia.size() < 2) {
+            return;
+        }
+        long[] history = mostPlayed(playedMedia, maxHistory);
+
+        // Media of this history that are new for the user, decided atomically per user
+        LongArrayList added = new LongArrayList();
+        countedMediaByUser.asMap().compute(userId, (user, counted) -> {
+            LongHashSet result = counted != null ? counted : new LongHashSet(history.length);
+            for (long mediaId : history) {
+                if (result.add(mediaId)) {
+                    added.add(mediaId);
+                }
+            }
+            return result;
+        });
+
+        // Pairs of two new media are counted once, pairs of a new and an old media as well
+        LongHashSet addedSet = LongHashSet.of(added.toArray());
+        for (int i = 0; i < added.size(); i++) {
+            long mediaId = added.get(i);
+            for (long other : history) {
+                if (other == mediaId || (addedSet.contains(other) && other < mediaId)) {
+                    continue;
+                }
+                countPair(mediaId, other);
+                countPair(other, mediaId);
+            }
+        }
+    }
+
+    // Up to limit media co-played with the user's most played media, strongest first
+    public List<Long> candidates(List<PlayedMediaDto> playedMedia, int limit, LongPredicate excluded) {
+        List<Long> candidates = new ArrayList<>(Math.max(limit, 0));
+        if (limit <= 0) {
+            return candidates;
+        }
+
+        // One sorted neighbor list per seed, weighted by how often the seed was played
+        PriorityQueue<Cursor> heap = new PriorityQueue<>();
+        for (PlayedMediaDto played : topPlayed(playedMedia, seedTracks)) {
+            Neighbors list = neighborsByMedia.get(played.getMediaId());
+            if (list == null) {
+                continue;
+            }
+            Cursor cursor = list.cursor(played.getPlayCount() == null ? 1 : played.getPlayCount());
+            if (cursor.hasNext()) {
+                heap.add(cursor);
+            }
+        }
+
+        // K-way merge, every list is sorted so the head of the heap is the best remaining candidate
+        LongHashSet emitted = new LongHashSet(limit);
+        while (!heap.isEmpty() && candidates.size() < limit) {
+            Cursor cursor = heap.poll();
+            long mediaId = cursor.ids[cursor.position];
+            if (!excluded.test(mediaId) && emitted.add(mediaId)) {
+                candidates.add(mediaId);
+            }
+            cursor.position++;
+            if (cursor.hasNext()) {
+                heap.add(cursor);
+            }
+        }
+        return candidates;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Number of media that have neighbors
+    public int size() {
+        return neighborsByMedia.size();
+    }
+
+    // Histories waiting to be counted
+    public int queued() {
+        return observations.size();
+    }
+
+    private void consume() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Observation observation;
+            try {
+                observation = observations.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                count(observation.userId(), observation.playedMedia());
+            } catch (RuntimeException e) {
+                log.warn("Failed to count co-plays of user {}", observation.userId(), e);
+            }
+        }
+    }
+
+    private void countPair(long mediaId, long other) {
+        Neighbors list = neighborsByMedia.get(mediaId);
+        if (list == null) {
+            if (neighborsByMedia.size() >= maxMedia) {
+                evictWeakest();
+            }
+            list = neighborsByMedia.computeIfAbsent(mediaId, id -> new Neighbors(neighbors));
+        }
+        list.add(other);
+    }
+
+    // Drops the half of the lists with the fewest co-plays, so media played from now on get a list too
+    private void evictWeakest() {
+        List<Map.Entry<Long, Neighbors>> lists = new ArrayList<>(neighborsByMedia.entrySet());
+        long[] totals = new long[lists.size()];
+        Integer[] order = new Integer[lists.size()];
+        for (int i = 0; i < order.length; i++) {
+            totals[i] = lists.get(i).getValue().total();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(totals[a], totals[b]));
+        for (int i = 0; i < order.length - maxMedia / 2; i++) {
+            neighborsByMedia.remove(lists.get(order[i]).getKey());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (counter != null) {
+            counter.interrupt();
+        }
+    }
+
+    private static long[] mostPlayed(List<PlayedMediaDto> playedMedia, int max) {
+        return topPlayed(playedMedia, max).stream()
+                .mapToLong(PlayedMediaDto::getMediaId)
+                .distinct()
+                .toArray();
+    }
+
+    private static List<PlayedMediaDto> topPlayed(List<PlayedMediaDto> playedMedia, int max) {
+        return playedMedia.stream()
+                .filter(played -> played.getMediaId() != null)
+                .sorted(Comparator.comparing((PlayedMediaDto played) ->
+                        played.getPlayCount() == null ? 0L : played.getPlayCount()).reversed())
+                .limit(max)
+                .toList();
+    }
+
+    // Co-play counts of one media, pruned to the strongest neighbors when full
+    private static final class Neighbors {
+
+        private final int keep;
+        private final long[] ids;
+        private final int[] counts;
+        private int size;
+        private long total;
+
+        Neighbors(int keep) {
+            this.keep = keep;
+            this.ids = new long[keep * 2];
+            this.counts = new int[keep * 2];
+        }
+
+        synchronized void add(long mediaId) {
+            total++;
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == mediaId) {
+                    counts[i]++;
+                    return;
+                }
+            }
+            if (size == ids.length) {
+                sortByCount();
+                size = keep;
+            }
+            ids[size] = mediaId;
+            counts[size] = 1;
+            size++;
+        }
+
+        // Co-plays counted for this media, including those of pruned neighbors
+        synchronized long total() {
+            return total;
+        }
+
+        // Copy of the strongest neighbors, sorted by count
+        synchronized Cursor cursor(double weight) {
+            sortByCount();
+            int length = Math.min(size, keep);
+            return new Cursor(Arrays.copyOf(ids, length), Arrays.copyOf(counts, length), weight);
+        }
+
+        // Insertion sort, lists are short and mostly sorted already
+        private void sortByCount() {
+            for (int i = 1; i < size; i++) {
+                long id = ids[i];
+                int count = counts[i];
+                int j = i - 1;
+                while (j >= 0 && counts[j] < count) {
+                    ids[j + 1] = ids[j];
+                    counts[j + 1] = counts[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+                counts[j + 1] = count;
+            }
+        }
+    }
+
+    private record Observation(String userId, List<PlayedMediaDto> playedMedia) { }
+
+    // Position in one sorted neighbor list, ordered by the weighted count at that position
+    private static final class Cursor implements Comparable<Cursor> {
+
+        private final long[] ids;
+        private final int[] counts;
+        private final double weight;
+        private int position;
+
+        Cursor(long[] ids, int[] counts, double weight) {
+            this.ids = ids;
+            this.counts = counts;
+            this.weight = weight;
+        }
+
+        boolean hasNext() {
+            return position < ids.length;
+        }
+
+        double score() {
+            return weight * counts[position];
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return Double.compare(other.score(), score());
+        }
+    }
+}
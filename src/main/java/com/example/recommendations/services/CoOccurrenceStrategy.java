@@ -0,0 +1,72 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.util.LongHashSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recommends media that other users played together with the user's most played
+ * media, taken from the CoOccurrenceIndex. The rest of the recommendations, and
+ * all of them while the index knows too little, come from the top genres.
+ * Co-played media of genres the user mostly dislikes are skipped.
+ */
+@Component
+public class CoOccurrenceStrategy implements RecommendationStrategy {
+
+    public static final String NAME = "co-occurrence";
+
+    private final CoOccurrenceIndex coOccurrenceIndex;
+    private final RecommendationSelector recommendationSelector;
+    private final double share;
+    private final double dislikedGenreShare;
+
+    @Autowired
+    public CoOccurrenceStrategy(CoOccurrenceIndex coOccurrenceIndex,
+                                RecommendationSelector recommendationSelector,
+                                @Value("${recommendations.co-occurrence.share:0.7}") double share,
+                                @Value("${recommendations.signals.disliked-genre-share:0.5}") double dislikedGenreShare) {
+        this.coOccurrenceIndex = coOccurrenceIndex;
+        this.recommendationSelector = recommendationSelector;
+        this.share = Math.min(Math.max(share, 0.0), 1.0);
+        this.dislikedGenreShare = dislikedGenreShare;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return coOccurrenceIndex.isEnabled();
+    }
+
+    @Override
+    public List<Long> recommend(CatalogSnapshot catalog,
+                                LongHashSet streamedMedia,
+                                PlayHistory history,
+                                Map<Long, List<String>> genresOfUnknownMedia,
+                                int count) {
+
+        // Neighbors may have left the catalog since they were counted, the filter skips those too
+        List<Long> recommendations = new ArrayList<>(count);
+        recommendations.addAll(coOccurrenceIndex.candidates(history.playedMedia(), (int) Math.round(count * share),
+                MediaFilter.of(catalog, streamedMedia, history, dislikedGenreShare)));
+        if (recommendations.size() == count) {
+            return recommendations;
+        }
+
+        LongHashSet excluded = LongHashSet.of(streamedMedia.toArray());
+        for (Long mediaId : recommendations) {
+            excluded.add(mediaId);
+        }
+        recommendations.addAll(recommendationSelector.recommend(catalog, excluded, history,
+                genresOfUnknownMedia, count - recommendations.size()));
+        return recommendations;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.recommendations.services;
+
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Downstream calls made while serving one request. Identical calls, same
+ * service, path and token, are only made once and everyone asking for them
+ * waits on the same future. All calls share the deadline of the request.
+ * Get one from DownstreamExecutor.newCalls() and don't keep it past the request.
+ */
+public final class DownstreamCalls {
+
+    private final DownstreamExecutor downstreamExecutor;
+    private final Instant deadline;
+    private final Map<CallKey, CompletableFuture<?>> calls = new ConcurrentHashMap<>();
+
+    DownstreamCalls(DownstreamExecutor downstreamExecutor, Instant deadline) {
+        this.downstreamExecutor = downstreamExecutor;
+        this.deadline = deadline;
+    }
+
+    public Instant deadline() {
+        return deadline;
+    }
+
+    // Starts the call unless the same call was already started during this request
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String service, String path, Jwt jwt, Supplier<T> call) {
+        CallKey key = new CallKey(service, path, jwt.getTokenValue());
+        return (CompletableFuture<T>) calls.computeIfAbsent(key, k -> downstreamExecutor.submit(service, call));
+    }
+
+    public <T> T await(CompletableFuture<T> future) {
+        return downstreamExecutor.await(future, deadline);
+    }
+
+    public <T> List<T> awaitAll(List<CompletableFuture<T>> futures) {
+        return downstreamExecutor.awaitAll(futures, deadline);
+    }
+
+    // Number of distinct calls started so far
+    public int size() {
+        return calls.size();
+    }
+
+    private record CallKey(String service, String path, String token) { }
+}
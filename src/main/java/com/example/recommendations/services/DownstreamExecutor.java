@@ -0,0 +1,125 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.clients.MediaPlayerClient;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking downstream calls on virtual threads, so independent calls of one
+ * request can wait on I/O at the same time instead of one after another.
+ * Every downstream service gets its own concurrency limit, a bulkhead that
+ * rejects calls waiting too long for a slot, and every request gets a deadline
+ * after which waiting is given up.
+ */
+@Component
+public class DownstreamExecutor implements DisposableBean {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Semaphore> permitsByService = new ConcurrentHashMap<>();
+    private final int defaultMaxConcurrency;
+    private final Duration requestTimeout;
+    private final Duration bulkheadMaxWait;
+
+    @Autowired
+    public DownstreamExecutor(@Value("${recommendations.downstream.max-concurrency.media-handling:32}") int mediaHandlingMaxConcurrency,
+                              @Value("${recommendations.downstream.max-concurrency.media-player:16}") int mediaPlayerMaxConcurrency,
+                              @Value("${recommendations.downstream.request-timeout:5s}") Duration requestTimeout,
+                              @Value("${recommendations.downstream.bulkhead-max-wait:2s}") Duration bulkheadMaxWait) {
+        this.defaultMaxConcurrency = Math.max(mediaHandlingMaxConcurrency, mediaPlayerMaxConcurrency);
+        this.requestTimeout = requestTimeout;
+        this.bulkheadMaxWait = bulkheadMaxWait;
+        this.permitsByService.put(MediaHandlingClient.SERVICE_NAME, new Semaphore(mediaHandlingMaxConcurrency));
+        this.permitsByService.put(MediaPlayerClient.SERVICE_NAME, new Semaphore(mediaPlayerMaxConcurrency));
+    }
+
+    // Point in time when a request started now has to be done waiting on downstream calls
+    public Instant deadline() {
+        return Instant.now().plus(requestTimeout);
+    }
+
+    // Calls of one request, identical calls made only once, all sharing a deadline starting now
+    public DownstreamCalls newCalls() {
+        return new DownstreamCalls(this, deadline());
+    }
+
+    // How long a request may wait on downstream calls in total
+    public Duration requestTimeout() {
+        return requestTimeout;
+    }
+
+    // Runs a call against a downstream service without exceeding its concurrency limit
+    public <T> CompletableFuture<T> submit(String service, Supplier<T> call) {
+        Semaphore permits = permitsByService.computeIfAbsent(service, s -> new Semaphore(defaultMaxConcurrency));
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                // A service that is this backed up won't answer in time anyway, fail fast instead of queueing
+                if (!permits.tryAcquire(bulkheadMaxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                    throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                            "Too many calls in flight to " + service);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Interrupted while waiting for " + service);
+            }
+            try {
+                return call.get();
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    // Runs work that makes downstream calls of its own on a virtual thread, those calls take their own permits
+    public <T> CompletableFuture<T> run(Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, executor);
+    }
+
+    // Waits for a call until the deadline, rethrowing the failure of the call itself
+    public <T> T await(CompletableFuture<T> future, Instant deadline) {
+        long remainingNanos = Duration.between(Instant.now(), deadline).toNanos();
+        try {
+            return future.get(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // The call is not cancelled, its result may be shared with other requests
+            throw new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT,
+                    "Downstream services did not respond in time");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Interrupted while waiting for downstream services");
+        }
+    }
+
+    // Waits for several calls sharing the same deadline, keeping their order
+    public <T> List<T> awaitAll(List<CompletableFuture<T>> futures, Instant deadline) {
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(await(future, deadline));
+        }
+        return results;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Store that writes every user's recommendations to a JSON file in a directory,
+ * so they survive restarts. Reads are served from memory once a file was read,
+ * from a cache bounded like InMemoryRecommendationStore; dropped users are read
+ * from their file again.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendations.precompute.store", havingValue = "file")
+public class FileRecommendationStore implements RecommendationStore {
+
+    private static final Logger log = LoggerFactory.getLogger(FileRecommendationStore.class);
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final Cache<String, PrecomputedRecommendationsDto> recommendationsByUser;
+
+    @Autowired
+    public FileRecommendationStore(ObjectMapper objectMapper,
+                                   @Value("${recommendations.precompute.directory:precomputed}") Path directory,
+                                   @Value("${recommendations.precompute.max-users:100000}") long maxUsers,
+                                   @Value("${recommendations.precompute.idle-timeout:1h}") Duration idleTimeout) throws IOException {
+        this.objectMapper = objectMapper;
+        this.directory = Files.createDirectories(directory);
+        this.recommendationsByUser = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idleTimeout)
+                .build();
+    }
+
+    @Override
+    public Optional<PrecomputedRecommendationsDto> get(String userId) {
+        PrecomputedRecommendationsDto cached = recommendationsByUser.getIfPresent(userId);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        Path file = fileOf(userId);
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            PrecomputedRecommendationsDto stored = objectMapper.readValue(file.toFile(), PrecomputedRecommendationsDto.class);
+            recommendationsByUser.asMap().putIfAbsent(userId, stored);
+            return Optional.of(stored);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable recommendations file {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(String userId, PrecomputedRecommendationsDto recommendations) {
+        recommendationsByUser.put(userId, recommendations);
+
+        Path file = fileOf(userId);
+        try {
+            // Write next to the target and move it in place, so readers never see half a file
+            Path temporary = Files.createTempFile(directory, "recommendations", ".tmp");
+            objectMapper.writeValue(temporary.toFile(), recommendations);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store recommendations in " + file, e);
+        }
+    }
+
+    // The sub claim may contain any character, encode it to get a safe file name
+    private Path fileOf(String userId) {
+        String name = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(userId.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(name + ".json");
+    }
+}
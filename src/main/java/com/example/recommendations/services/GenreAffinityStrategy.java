@@ -0,0 +1,183 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.util.AliasTable;
+import com.example.recommendations.util.CandidateSampler;
+import com.example.recommendations.util.LongHashSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.random.RandomGenerator;
+
+/**
+ * Recommends by weighted genre affinity instead of a fixed top 3. Every play adds
+ * its playCount to the affinity of the media's genres, scaled down by how long
+ * ago it was played and by the liked/disliked weights. Genres are then drawn in
+ * proportion to their affinity from an alias table, and a media is drawn
+ * uniformly within the genre. Affinities are read from the GenreCounts of the
+ * history, indexed like the genres of the CatalogSnapshot, so a request costs
+ * O(genres + count) once the plays are counted.
+ * Users without history start from the most played media of everyone, and
+ * genres a user mostly dislikes are never drawn.
+ */
+@Component
+public class GenreAffinityStrategy implements RecommendationStrategy {
+
+    public static final String NAME = "genre-affinity";
+
+    // Draws per wanted media before the rest is filled from the whole catalog
+    private static final int ATTEMPTS_PER_PICK = 16;
+
+    private final RandomGenerator random;
+    private final PopularityIndex popularityIndex;
+    private final long halfLifeMillis;
+    private final double likedWeight;
+    private final double dislikedWeight;
+    private final double exploration;
+    private final double dislikedGenreShare;
+
+    @Autowired
+    public GenreAffinityStrategy(RandomGenerator random,
+                                 PopularityIndex popularityIndex,
+                                 @Value("${recommendations.affinity.half-life:30d}") Duration halfLife,
+                                 @Value("${recommendations.affinity.liked-weight:2.0}") double likedWeight,
+                                 @Value("${recommendations.affinity.disliked-weight:-1.0}") double dislikedWeight,
+                                 @Value("${recommendations.affinity.exploration:0.2}") double exploration,
+                                 @Value("${recommendations.signals.disliked-genre-share:0.5}") double dislikedGenreShare) {
+        this.random = random;
+        this.popularityIndex = popularityIndex;
+        this.halfLifeMillis = halfLife.toMillis();
+        this.likedWeight = likedWeight;
+        this.dislikedWeight = dislikedWeight;
+        this.exploration = Math.min(Math.max(exploration, 0.0), 0.99);
+        this.dislikedGenreShare = dislikedGenreShare;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<Long> recommend(CatalogSnapshot catalog,
+                                LongHashSet streamedMedia,
+                                PlayHistory history,
+                                Map<Long, List<String>> genresOfUnknownMedia,
+                                int count) {
+
+        List<Long> recommendations = new ArrayList<>(count);
+
+        // Counted with this half-life first, so the filter reads the same counts
+        GenreCounts counts = history.genreCounts(catalog, halfLifeMillis);
+
+        // Picked media are added to the filter, so nothing is recommended twice
+        MediaFilter excluded = MediaFilter.of(catalog, streamedMedia, history, dislikedGenreShare);
+        LongConsumer recommend = id -> {
+            excluded.exclude(id);
+            recommendations.add(id);
+        };
+
+        // Without history every genre weighs the same, popular media are a better start
+        if (history.isEmpty()) {
+            popularityIndex.sample(count, excluded, random, recommend);
+        }
+
+        double[] weights = genreWeights(catalog, counts, genresOfUnknownMedia, excluded);
+        if (weights != null) {
+            AliasTable genres = new AliasTable(weights);
+            for (int attempts = count * ATTEMPTS_PER_PICK; attempts > 0 && recommendations.size() < count; attempts--) {
+                int genre = genres.sample(random);
+                long mediaId = catalog.mediaIdAt(genre, random.nextInt(catalog.mediaCount(genre)));
+                if (!excluded.test(mediaId)) {
+                    recommend.accept(mediaId);
+                }
+            }
+        }
+
+        // Add popular and then random media if the drawn genres ran out of media the user hasn't played
+        popularityIndex.sample(count - recommendations.size(), excluded, random, recommend);
+        CandidateSampler.sample(catalog.allMedia(), count - recommendations.size(), excluded, random, recommend);
+
+        return recommendations;
+    }
+
+    // Weight of every genre of the catalog, null if no genre has any media the filter allows
+    double[] genreWeights(CatalogSnapshot catalog,
+                          GenreCounts counts,
+                          Map<Long, List<String>> genresOfUnknownMedia,
+                          MediaFilter filter) {
+
+        long now = Instant.now().toEpochMilli();
+        double[] affinity = counts.affinities(now, likedWeight, dislikedWeight);
+
+        // Only media the catalog doesn't know are weighed one by one
+        for (PlayedMediaDto played : counts.unknownMedia()) {
+            double weight = weight(played, now);
+            if (weight == 0) {
+                continue;
+            }
+            for (String genre : genresOfUnknownMedia.getOrDefault(played.getMediaId(), List.of())) {
+                Long genreId = catalog.genreIdByName(genre);
+                if (genreId != null) {
+                    addAffinity(affinity, catalog.genreIndex(genreId), weight);
+                }
+            }
+        }
+
+        // Disliked genres end up below 0, they are only reached through exploration,
+        // genres the user mostly dislikes not even then
+        double total = 0;
+        int genresWithMedia = 0;
+        for (int i = 0; i < affinity.length; i++) {
+            if (catalog.mediaCount(i) == 0 || filter.isDislikedGenre(i)) {
+                affinity[i] = 0;
+                continue;
+            }
+            affinity[i] = Math.max(affinity[i], 0);
+            total += affinity[i];
+            genresWithMedia++;
+        }
+        if (genresWithMedia == 0) {
+            return null;
+        }
+
+        // Spread the exploration share evenly over all genres, or everything if there is no history
+        double floor = total == 0 ? 1.0 : exploration * total / ((1 - exploration) * genresWithMedia);
+        for (int i = 0; i < affinity.length; i++) {
+            if (catalog.mediaCount(i) > 0 && !filter.isDislikedGenre(i)) {
+                affinity[i] += floor;
+            }
+        }
+        return affinity;
+    }
+
+    // Plays of one media, halved every half-life since it was last played and scaled by likes
+    private double weight(PlayedMediaDto played, long now) {
+        double weight = played.getPlayCount() == null ? 0 : played.getPlayCount();
+
+        if (halfLifeMillis > 0 && played.getLastPlayed() != null) {
+            long age = Math.max(now - played.getLastPlayed().toEpochMilli(), 0);
+            weight *= Math.pow(0.5, (double) age / halfLifeMillis);
+        }
+        if (played.isLiked()) {
+            weight *= likedWeight;
+        }
+        if (played.isDisliked()) {
+            weight *= dislikedWeight;
+        }
+        return weight;
+    }
+
+    private static void addAffinity(double[] affinity, int genreIndex, double weight) {
+        if (genreIndex >= 0) {
+            affinity[genreIndex] += weight;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * A user's plays added up per genre of one catalog, read by MediaFilter and
+ * the strategies instead of going over every play on every request. Built once
+ * for a fetched history, or kept by a UserProfile and updated by every event in
+ * O(genres of the media). Dated plays are weighed relative to a fixed reference
+ * time, so time passing only rescales them when read. Plays of media the
+ * catalog doesn't know are kept as they are, their genres only come by name.
+ * Handed out as copies, don't modify.
+ */
+public final class GenreCounts {
+
+    private final CatalogSnapshot catalog;
+    private final long halfLifeMillis;
+    private final long reference;
+    // Catalog positions of the played media
+    private final BitSet playedMedia;
+    // Played and disliked media of every genre
+    private final int[] mediaCounts;
+    private final int[] dislikedCounts;
+    // Plays of media neither liked nor disliked, and of liked media counting at least 1
+    private final long[] neutralPlays;
+    private final long[] likedPlays;
+    // Plays by kind and genre, halved every half-life before reference for dated ones
+    private final double[][] datedPlays;
+    private final double[][] undatedPlays;
+    private final Map<Long, PlayedMediaDto> unknownMedia;
+
+    GenreCounts(CatalogSnapshot catalog, long halfLifeMillis) {
+        this.catalog = catalog;
+        this.halfLifeMillis = halfLifeMillis;
+        this.reference = Instant.now().toEpochMilli();
+        this.playedMedia = new BitSet(catalog.mediaCount());
+        this.mediaCounts = new int[catalog.genreCount()];
+        this.dislikedCounts = new int[catalog.genreCount()];
+        this.neutralPlays = new long[catalog.genreCount()];
+        this.likedPlays = new long[catalog.genreCount()];
+        this.datedPlays = new double[3][catalog.genreCount()];
+        this.undatedPlays = new double[3][catalog.genreCount()];
+        this.unknownMedia = new HashMap<>();
+    }
+
+    private GenreCounts(GenreCounts counts) {
+        this.catalog = counts.catalog;
+        this.halfLifeMillis = counts.halfLifeMillis;
+        this.reference = counts.reference;
+        this.playedMedia = (BitSet) counts.playedMedia.clone();
+        this.mediaCounts = counts.mediaCounts.clone();
+        this.dislikedCounts = counts.dislikedCounts.clone();
+        this.neutralPlays = counts.neutralPlays.clone();
+        this.likedPlays = counts.likedPlays.clone();
+        this.datedPlays = new double[][]{counts.datedPlays[0].clone(), counts.datedPlays[1].clone(), counts.datedPlays[2].clone()};
+        this.undatedPlays = new double[][]{counts.undatedPlays[0].clone(), counts.undatedPlays[1].clone(), counts.undatedPlays[2].clone()};
+        this.unknownMedia = new HashMap<>(counts.unknownMedia);
+    }
+
+    // Counts of a whole history, halfLifeMillis <= 0 weighs every play the same
+    static GenreCounts of(PlayedMediaTable media, CatalogSnapshot catalog, long halfLifeMillis) {
+        GenreCounts counts = new GenreCounts(catalog, halfLifeMillis);
+        for (int slot = 0; slot < media.capacity(); slot++) {
+            if (media.isUsed(slot)) {
+                counts.count(media, slot, 1);
+            }
+        }
+        return counts;
+    }
+
+    // Adds the media in the slot with sign 1, or takes it out again with -1 before the slot changes
+    void count(PlayedMediaTable media, int slot, int sign) {
+        long mediaId = media.mediaId(slot);
+        int mediaIndex = catalog.mediaIndex(mediaId);
+        if (mediaIndex < 0) {
+            if (sign > 0) {
+                unknownMedia.put(mediaId, media.toDto(slot));
+            } else {
+                unknownMedia.remove(mediaId);
+            }
+            return;
+        }
+
+        playedMedia.set(mediaIndex, sign > 0);
+        byte kind = media.kind(slot);
+        long plays = media.plays(slot);
+        long lastPlayed = media.lastPlayed(slot);
+        boolean dated = halfLifeMillis > 0 && lastPlayed != PlayedMediaTable.UNDATED;
+        double weight = dated ? plays * Math.pow(0.5, (double) (reference - lastPlayed) / halfLifeMillis) : plays;
+
+        for (int genreIndex : catalog.genreIndexesOf(mediaIndex)) {
+            mediaCounts[genreIndex] += sign;
+            switch (kind) {
+                case PlayedMediaTable.LIKED -> likedPlays[genreIndex] += sign * Math.max(plays, 1);
+                case PlayedMediaTable.DISLIKED -> dislikedCounts[genreIndex] += sign;
+                default -> neutralPlays[genreIndex] += sign * plays;
+            }
+            (dated ? datedPlays : undatedPlays)[kind][genreIndex] += sign * weight;
+        }
+    }
+
+    // Whether these are the counts of this catalog
+    public boolean isFor(CatalogSnapshot catalog) {
+        return this.catalog.version() == catalog.version();
+    }
+
+    public long halfLifeMillis() {
+        return halfLifeMillis;
+    }
+
+    // When the dated plays were weighed, reads rescale them from here
+    long reference() {
+        return reference;
+    }
+
+    // Catalog positions of the played media, don't modify
+    public BitSet playedMedia() {
+        return playedMedia;
+    }
+
+    // How many played media the genre at this index has
+    public int mediaCount(int genreIndex) {
+        return mediaCounts[genreIndex];
+    }
+
+    // How many of them the user disliked
+    public int dislikedCount(int genreIndex) {
+        return dislikedCounts[genreIndex];
+    }
+
+    // Plays of the genre's media that weren't disliked, liked media counting likedWeight times and at least once
+    public double score(int genreIndex, double likedWeight) {
+        return neutralPlays[genreIndex] + likedWeight * likedPlays[genreIndex];
+    }
+
+    // Plays of every genre halved every half-life since they were last played, scaled by likes
+    public double[] affinities(long now, double likedWeight, double dislikedWeight) {
+        double decay = halfLifeMillis > 0 ? Math.pow(0.5, (double) Math.max(now - reference, 0) / halfLifeMillis) : 1.0;
+        double[] weights = {1.0, likedWeight, dislikedWeight};
+        double[] affinities = new double[mediaCounts.length];
+        for (int kind = 0; kind < weights.length; kind++) {
+            for (int genreIndex = 0; genreIndex < affinities.length; genreIndex++) {
+                affinities[genreIndex] += weights[kind]
+                        * (datedPlays[kind][genreIndex] * decay + undatedPlays[kind][genreIndex]);
+            }
+        }
+        return affinities;
+    }
+
+    // Plays of the media this catalog doesn't know, their genres have to be looked up by name
+    public Collection<PlayedMediaDto> unknownMedia() {
+        return Collections.unmodifiableCollection(unknownMedia.values());
+    }
+
+    public Set<Long> unknownMediaIds() {
+        return Collections.unmodifiableSet(unknownMedia.keySet());
+    }
+
+    GenreCounts copy() {
+        return new GenreCounts(this);
+    }
+}
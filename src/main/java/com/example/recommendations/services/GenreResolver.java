@@ -0,0 +1,84 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves the genres of many media at once through the bulk genresbymediaids
+ * endpoint of media-handling. Large ID sets are split into chunks so that no
+ * URL grows past the configured length, and the chunks are fetched in parallel.
+ */
+@Component
+public class GenreResolver {
+
+    // Room left in every URL for scheme, host, port and path before the ID list
+    private static final int URL_PREFIX_ALLOWANCE = 128;
+
+    private final MediaHandlingClient mediaHandlingClient;
+    private final DownstreamExecutor downstreamExecutor;
+    private final int maxIdsLength;
+
+    @Autowired
+    public GenreResolver(MediaHandlingClient mediaHandlingClient,
+                         DownstreamExecutor downstreamExecutor,
+                         @Value("${recommendations.genre-resolution.max-url-length:2048}") int maxUrlLength) {
+        this.mediaHandlingClient = mediaHandlingClient;
+        this.downstreamExecutor = downstreamExecutor;
+        this.maxIdsLength = Math.max(maxUrlLength - URL_PREFIX_ALLOWANCE, 64);
+    }
+
+    // Genre names of every given media, fetched in as few round trips as the URL length allows
+    public Map<Long, List<String>> resolveGenres(Collection<Long> mediaIds, Jwt jwt, Instant deadline) {
+
+        if (mediaIds == null || mediaIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        List<CompletableFuture<Map<Long, List<String>>>> futures = new ArrayList<>();
+        for (List<Long> chunk : chunk(mediaIds)) {
+            futures.add(downstreamExecutor.submit(MediaHandlingClient.SERVICE_NAME,
+                    () -> mediaHandlingClient.getGenresByMediaIds(chunk, jwt)));
+        }
+
+        if (futures.size() == 1) {
+            return downstreamExecutor.await(futures.get(0), deadline);
+        }
+
+        Map<Long, List<String>> genresByMediaIds = new HashMap<>();
+        for (Map<Long, List<String>> result : downstreamExecutor.awaitAll(futures, deadline)) {
+            genresByMediaIds.putAll(result);
+        }
+        return genresByMediaIds;
+    }
+
+    // Splits IDs so that each chunk, joined with commas, fits in the ID part of the URL
+    List<List<Long>> chunk(Collection<Long> mediaIds) {
+        List<List<Long>> chunks = new ArrayList<>();
+        List<Long> current = new ArrayList<>();
+        int currentLength = 0;
+
+        for (Long mediaId : mediaIds) {
+            int idLength = String.valueOf(mediaId).length() + (current.isEmpty() ? 0 : 1);
+            if (!current.isEmpty() && currentLength + idLength > maxIdsLength) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                currentLength = 0;
+                idLength--;
+            }
+            current.add(mediaId);
+            currentLength += idLength;
+        }
+
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayEventDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Default queue, a bounded queue in memory drained by one virtual thread.
+ * Events still queued are lost on restart, profiles are fetched again then anyway.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendations.events.queue", havingValue = "memory", matchIfMissing = true)
+public class InMemoryPlayEventQueue implements PlayEventQueue, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryPlayEventQueue.class);
+
+    // Most events applied before checking for new ones
+    private static final int DRAIN_BATCH = 256;
+
+    private final UserProfileStore userProfileStore;
+    private final BlockingQueue<PlayEventDto> queue;
+    private final Thread consumer;
+
+    @Autowired
+    public InMemoryPlayEventQueue(UserProfileStore userProfileStore,
+                                  @Value("${recommendations.events.capacity:10000}") int capacity) {
+        this.userProfileStore = userProfileStore;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.consumer = Thread.ofVirtual().name("play-events").start(this::consume);
+    }
+
+    @Override
+    public boolean offer(List<PlayEventDto> events) {
+        // Not atomic, when producers race for the last slots a batch may be partly queued and still rejected
+        if (queue.remainingCapacity() < events.size()) {
+            return false;
+        }
+        for (PlayEventDto event : events) {
+            if (!queue.offer(event)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Number of events waiting to be applied
+    public int size() {
+        return queue.size();
+    }
+
+    private void consume() {
+        List<PlayEventDto> batch = new ArrayList<>(DRAIN_BATCH);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, DRAIN_BATCH - 1);
+            for (PlayEventDto event : batch) {
+                try {
+                    userProfileStore.apply(event);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to apply {} event of user {}", event.getType(), event.getUserId(), e);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        consumer.interrupt();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Default store, lost on restart. Bounded like the profiles: users who stopped
+ * asking are dropped after idle-timeout, and the least used ones beyond
+ * max-users, and get their recommendations computed on their next request.
+ */
+@Component
+@ConditionalOnProperty(name = "recommendations.precompute.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryRecommendationStore implements RecommendationStore {
+
+    private final Cache<String, PrecomputedRecommendationsDto> recommendationsByUser;
+
+    @Autowired
+    public InMemoryRecommendationStore(@Value("${recommendations.precompute.max-users:100000}") long maxUsers,
+                                       @Value("${recommendations.precompute.idle-timeout:1h}") Duration idleTimeout) {
+        this.recommendationsByUser = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idleTimeout)
+                .build();
+    }
+
+    @Override
+    public Optional<PrecomputedRecommendationsDto> get(String userId) {
+        return Optional.ofNullable(recommendationsByUser.getIfPresent(userId));
+    }
+
+    @Override
+    public void put(String userId, PrecomputedRecommendationsDto recommendations) {
+        recommendationsByUser.put(userId, recommendations);
+    }
+}
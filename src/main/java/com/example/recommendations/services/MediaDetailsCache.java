@@ -0,0 +1,95 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of media details by media ID, shared by all users.
+ * Eviction is W-TinyLFU by size plus a TTL, media that media-handling answers
+ * 404 for are cached as empty for a shorter time, failed lookups not at all, and concurrent misses for the same ID wait on
+ * a single downstream call. Hit, miss and eviction counts are published as
+ * cache.* metrics with the tag cache=media-details.
+ */
+@Component
+public class MediaDetailsCache {
+
+    private final MediaHandlingClient mediaHandlingClient;
+    private final DownstreamExecutor downstreamExecutor;
+    private final AsyncCache<Long, Optional<RecommendationDto>> cache;
+
+    @Autowired
+    public MediaDetailsCache(MediaHandlingClient mediaHandlingClient,
+                             DownstreamExecutor downstreamExecutor,
+                             MeterRegistry meterRegistry,
+                             @Value("${recommendations.media-details.max-size:10000}") long maxSize,
+                             @Value("${recommendations.media-details.ttl:10m}") Duration ttl,
+                             @Value("${recommendations.media-details.negative-ttl:1m}") Duration negativeTtl) {
+        this.mediaHandlingClient = mediaHandlingClient;
+        this.downstreamExecutor = downstreamExecutor;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new PresenceExpiry(ttl, negativeTtl))
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "media-details");
+    }
+
+    // Details of a media, empty if media-handling doesn't know it
+    public CompletableFuture<Optional<RecommendationDto>> get(Long mediaId, Jwt jwt) {
+        return cache.get(mediaId, (id, executor) -> downstreamExecutor.submit(MediaHandlingClient.SERVICE_NAME,
+                () -> fetch(id, jwt)));
+    }
+
+    // Same as above, with a caller supplied call for misses
+    public CompletableFuture<Optional<RecommendationDto>> get(Long mediaId,
+                                                              Supplier<CompletableFuture<Optional<RecommendationDto>>> fetch) {
+        return cache.get(mediaId, (id, executor) -> fetch.get());
+    }
+
+    // Failures are thrown, so they aren't cached and the media is looked up again next time
+    private Optional<RecommendationDto> fetch(Long mediaId, Jwt jwt) {
+        try {
+            return Optional.of(mediaHandlingClient.getRecommendationByMediaId(mediaId, jwt));
+        } catch (HttpClientErrorException.NotFound e) {
+            return Optional.empty();
+        }
+    }
+
+    // Found media live for the TTL, missing media for the shorter negative TTL
+    private record PresenceExpiry(Duration ttl, Duration negativeTtl)
+            implements Expiry<Long, Optional<RecommendationDto>> {
+
+        @Override
+        public long expireAfterCreate(Long mediaId, Optional<RecommendationDto> media, long currentTime) {
+            return media.isPresent() ? ttl.toNanos() : negativeTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(Long mediaId, Optional<RecommendationDto> media,
+                                      long currentTime, long currentDuration) {
+            return expireAfterCreate(mediaId, media, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Long mediaId, Optional<RecommendationDto> media,
+                                    long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
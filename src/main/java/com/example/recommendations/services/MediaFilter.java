@@ -0,0 +1,75 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.util.LongHashSet;
+
+import java.util.BitSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Media that must not be recommended to a user, as bitsets over the positions
+ * of the catalog: the media the user already has in their history, media picked
+ * earlier in the same request, and all media of the genres the user mostly
+ * dislikes. Built from the genre counts of the history alone and tested for
+ * every candidate while sampling. Media the catalog doesn't know are never
+ * recommended either.
+ */
+public final class MediaFilter implements LongPredicate {
+
+    // A genre is only avoided once the user disliked at least this many of its media
+    private static final int MIN_DISLIKED_PER_GENRE = 2;
+
+    private final CatalogSnapshot catalog;
+    private final BitSet excludedMedia;
+    private final BitSet dislikedGenres;
+
+    private MediaFilter(CatalogSnapshot catalog, BitSet excludedMedia, BitSet dislikedGenres) {
+        this.catalog = catalog;
+        this.excludedMedia = excludedMedia;
+        this.dislikedGenres = dislikedGenres;
+    }
+
+    // Excludes the given media, and the genres where more than dislikedGenreShare of the user's media are disliked
+    public static MediaFilter of(CatalogSnapshot catalog,
+                                 LongHashSet excluded,
+                                 PlayHistory history,
+                                 double dislikedGenreShare) {
+
+        // Played media and how many of every genre's media the user has and dislikes are counted already
+        GenreCounts counts = history.genreCounts(catalog);
+        MediaFilter filter = new MediaFilter(catalog, (BitSet) counts.playedMedia().clone(), new BitSet(catalog.genreCount()));
+        for (long mediaId : excluded.toArray()) {
+            filter.exclude(mediaId);
+        }
+
+        for (int genreIndex = 0; genreIndex < catalog.genreCount(); genreIndex++) {
+            if (counts.dislikedCount(genreIndex) >= MIN_DISLIKED_PER_GENRE
+                    && counts.dislikedCount(genreIndex) > dislikedGenreShare * counts.mediaCount(genreIndex)) {
+                filter.dislikedGenres.set(genreIndex);
+            }
+        }
+        return filter;
+    }
+
+    // True if the media must not be recommended
+    @Override
+    public boolean test(long mediaId) {
+        int mediaIndex = catalog.mediaIndex(mediaId);
+        if (mediaIndex < 0 || excludedMedia.get(mediaIndex)) {
+            return true;
+        }
+        return !dislikedGenres.isEmpty() && catalog.inAnyGenre(mediaIndex, dislikedGenres);
+    }
+
+    // Keeps the media from being recommended again, e.g. once it was picked
+    public void exclude(long mediaId) {
+        int mediaIndex = catalog.mediaIndex(mediaId);
+        if (mediaIndex >= 0) {
+            excludedMedia.set(mediaIndex);
+        }
+    }
+
+    // Whether the user mostly dislikes the genre at this index
+    public boolean isDislikedGenre(int genreIndex) {
+        return genreIndex >= 0 && dislikedGenres.get(genreIndex);
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayEventDto;
+
+import java.util.List;
+
+/**
+ * Hands play events over to be applied to the UserProfileStore. Events are
+ * applied asynchronously, a consumer of a message broker can implement this
+ * in place of the in-memory default.
+ */
+public interface PlayEventQueue {
+
+    // False if the events were not accepted, e.g. because the queue is full
+    boolean offer(List<PlayEventDto> events);
+}
@@ -0,0 +1,151 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.util.LongHashSet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A user's play history, read once per request and shared by everything that
+ * needs the played media IDs, play counts, likes and dislikes or the plays
+ * themselves. Either the full history as returned by media-player, or a view
+ * of a UserProfile that only carries the media played last. Both answer
+ * genreCounts() for what needs every play, a profile without going over them.
+ */
+public final class PlayHistory {
+
+    private static final PlayHistory EMPTY = new PlayHistory(List.of(), new LongHashSet(), Map.of(),
+            new LongHashSet(), new LongHashSet(), 0, null);
+
+    private final List<PlayedMediaDto> playedMedia;
+    private final LongHashSet mediaIds;
+    private final Map<Long, Long> playCounts;
+    private final LongHashSet likedMediaIds;
+    private final LongHashSet dislikedMediaIds;
+    private final int size;
+    // Null for a full history
+    private final UserProfile profile;
+    // Counts of the catalog asked for last
+    private volatile GenreCounts genreCounts;
+
+    private PlayHistory(List<PlayedMediaDto> playedMedia, LongHashSet mediaIds, Map<Long, Long> playCounts,
+                        LongHashSet likedMediaIds, LongHashSet dislikedMediaIds, int size, UserProfile profile) {
+        this.playedMedia = playedMedia;
+        this.mediaIds = mediaIds;
+        this.playCounts = playCounts;
+        this.likedMediaIds = likedMediaIds;
+        this.dislikedMediaIds = dislikedMediaIds;
+        this.size = size;
+        this.profile = profile;
+    }
+
+    // Plays of the same media are added up, plays without media ID are left out
+    public static PlayHistory of(List<PlayedMediaDto> playedMedia) {
+        LongHashSet mediaIds = new LongHashSet(playedMedia.size());
+        Map<Long, Long> playCounts = new HashMap<>(playedMedia.size() * 2);
+        LongHashSet liked = new LongHashSet();
+        LongHashSet disliked = new LongHashSet();
+        collect(playedMedia, mediaIds, playCounts, liked, disliked);
+        return new PlayHistory(List.copyOf(playedMedia), mediaIds, Collections.unmodifiableMap(playCounts),
+                liked, disliked, mediaIds.size(), null);
+    }
+
+    // View of a profile: the media played last, with likes and genre counts of every media
+    static PlayHistory of(UserProfile profile, List<PlayedMediaDto> recentMedia, int size,
+                          LongHashSet likedMediaIds, LongHashSet dislikedMediaIds) {
+        LongHashSet mediaIds = new LongHashSet(recentMedia.size());
+        Map<Long, Long> playCounts = new HashMap<>(recentMedia.size() * 2);
+        collect(recentMedia, mediaIds, playCounts, new LongHashSet(), new LongHashSet());
+        return new PlayHistory(List.copyOf(recentMedia), mediaIds, Collections.unmodifiableMap(playCounts),
+                likedMediaIds, dislikedMediaIds, size, profile);
+    }
+
+    private static void collect(List<PlayedMediaDto> playedMedia, LongHashSet mediaIds, Map<Long, Long> playCounts,
+                                LongHashSet liked, LongHashSet disliked) {
+        for (PlayedMediaDto played : playedMedia) {
+            if (played.getMediaId() == null) {
+                continue;
+            }
+            mediaIds.add(played.getMediaId());
+            playCounts.merge(played.getMediaId(), played.getPlayCount() == null ? 0L : played.getPlayCount(), Long::sum);
+            // Likes come with the plays, no need to ask media-player for them separately
+            if (played.isLiked()) {
+                liked.add(played.getMediaId());
+            } else if (played.isDisliked()) {
+                disliked.add(played.getMediaId());
+            }
+        }
+    }
+
+    public static PlayHistory empty() {
+        return EMPTY;
+    }
+
+    // Every play of a full history, only the media played last of a profile
+    public List<PlayedMediaDto> playedMedia() {
+        return playedMedia;
+    }
+
+    // IDs of the media in playedMedia(), don't modify
+    public LongHashSet mediaIds() {
+        return mediaIds;
+    }
+
+    // playCount by media ID of the media in playedMedia()
+    public Map<Long, Long> playCounts() {
+        return playCounts;
+    }
+
+    // IDs of the media the user liked, don't modify
+    public LongHashSet likedMediaIds() {
+        return likedMediaIds;
+    }
+
+    // IDs of the media the user disliked, don't modify
+    public LongHashSet dislikedMediaIds() {
+        return dislikedMediaIds;
+    }
+
+    // Number of media the user played, also those not in playedMedia()
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Whether playedMedia() holds every play, false for a profile
+    public boolean isComplete() {
+        return profile == null;
+    }
+
+    // Plays per genre of the catalog, with the half-life they were first counted with
+    public GenreCounts genreCounts(CatalogSnapshot catalog) {
+        GenreCounts counts = genreCounts;
+        if (counts == null || !counts.isFor(catalog)) {
+            counts = profile != null
+                    ? profile.genreCounts(catalog)
+                    : GenreCounts.of(PlayedMediaTable.of(playedMedia), catalog, counts == null ? 0 : counts.halfLifeMillis());
+            genreCounts = counts;
+        }
+        return counts;
+    }
+
+    // Same as above with plays halved every halfLifeMillis, which a profile counted with already
+    public GenreCounts genreCounts(CatalogSnapshot catalog, long halfLifeMillis) {
+        GenreCounts counts = genreCounts(catalog);
+        if (counts.halfLifeMillis() != halfLifeMillis) {
+            if (profile != null) {
+                throw new IllegalStateException("Profiles count plays with a half-life of "
+                        + counts.halfLifeMillis() + "ms, not " + halfLifeMillis + "ms");
+            }
+            counts = GenreCounts.of(PlayedMediaTable.of(playedMedia), catalog, halfLifeMillis);
+            genreCounts = counts;
+        }
+        return counts;
+    }
+}
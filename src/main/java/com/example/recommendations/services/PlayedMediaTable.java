@@ -0,0 +1,179 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plays, last play and like of every media of one user, in primitive arrays
+ * with open addressing and linear probing like LongHashSet. A history of
+ * thousands of media is a few arrays instead of as many DTOs, and an event
+ * finds its media without boxing. Plays of the same media are added up.
+ */
+final class PlayedMediaTable {
+
+    // What the user thinks of a media, liking wins over disliking
+    static final byte NEUTRAL = 0;
+    static final byte LIKED = 1;
+    static final byte DISLIKED = 2;
+    // Marks a slot without media, so media ID 0 needs no special case
+    private static final byte FREE = -1;
+
+    // lastPlayed of media that were never played with a date
+    static final long UNDATED = Long.MIN_VALUE;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] mediaIds;
+    private long[] plays;
+    private long[] lastPlayed;
+    private byte[] kinds;
+    private int mask;
+    private int size;
+
+    PlayedMediaTable(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1);
+    }
+
+    // Plays without media ID are left out
+    static PlayedMediaTable of(List<PlayedMediaDto> playedMedia) {
+        PlayedMediaTable table = new PlayedMediaTable(playedMedia.size());
+        long now = Instant.now().toEpochMilli();
+        for (PlayedMediaDto played : playedMedia) {
+            if (played.getMediaId() == null) {
+                continue;
+            }
+            int slot = table.add(played.getMediaId());
+            table.addPlays(slot, played.getPlayCount() == null ? 0 : played.getPlayCount(),
+                    played.getLastPlayed() == null ? UNDATED : played.getLastPlayed().toEpochMilli(), now);
+            if (played.isLiked()) {
+                table.kinds[slot] = LIKED;
+            } else if (played.isDisliked() && table.kinds[slot] != LIKED) {
+                table.kinds[slot] = DISLIKED;
+            }
+        }
+        return table;
+    }
+
+    // Slot of the media, -1 if the table doesn't have it
+    int slot(long mediaId) {
+        int slot = indexOf(mediaId);
+        return kinds[slot] == FREE ? -1 : slot;
+    }
+
+    // Slot of the media, added without plays if the table didn't have it
+    int add(long mediaId) {
+        int slot = indexOf(mediaId);
+        if (kinds[slot] != FREE) {
+            return slot;
+        }
+        mediaIds[slot] = mediaId;
+        plays[slot] = 0;
+        lastPlayed[slot] = UNDATED;
+        kinds[slot] = NEUTRAL;
+        if (++size > kinds.length * LOAD_FACTOR) {
+            grow();
+            return indexOf(mediaId);
+        }
+        return slot;
+    }
+
+    // Adds plays, keeping the latest play; plays from the future count as played now
+    void addPlays(int slot, long count, long playedAt, long now) {
+        plays[slot] += Math.max(count, 0);
+        if (playedAt != UNDATED) {
+            lastPlayed[slot] = Math.max(lastPlayed[slot], Math.min(playedAt, now));
+        }
+    }
+
+    void setKind(int slot, byte kind) {
+        kinds[slot] = kind;
+    }
+
+    // Slots run from 0 to capacity, skip the ones that aren't used
+    int capacity() {
+        return kinds.length;
+    }
+
+    boolean isUsed(int slot) {
+        return kinds[slot] != FREE;
+    }
+
+    long mediaId(int slot) {
+        return mediaIds[slot];
+    }
+
+    long plays(int slot) {
+        return plays[slot];
+    }
+
+    long lastPlayed(int slot) {
+        return lastPlayed[slot];
+    }
+
+    byte kind(int slot) {
+        return kinds[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Same shape as the media-player DTO, for what still reads those
+    PlayedMediaDto toDto(int slot) {
+        PlayedMediaDto played = new PlayedMediaDto();
+        played.setMediaId(mediaIds[slot]);
+        played.setPlayCount(plays[slot]);
+        played.setLiked(kinds[slot] == LIKED);
+        played.setDisliked(kinds[slot] == DISLIKED);
+        played.setLastPlayed(lastPlayed[slot] == UNDATED ? null : Instant.ofEpochMilli(lastPlayed[slot]));
+        return played;
+    }
+
+    // Slot holding the media, or the free slot where it would be stored
+    private int indexOf(long mediaId) {
+        int index = hash(mediaId) & mask;
+        while (kinds[index] != FREE && mediaIds[index] != mediaId) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void allocate(int capacity) {
+        mediaIds = new long[capacity];
+        plays = new long[capacity];
+        lastPlayed = new long[capacity];
+        kinds = new byte[capacity];
+        Arrays.fill(kinds, FREE);
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        long[] previousIds = mediaIds;
+        long[] previousPlays = plays;
+        long[] previousLastPlayed = lastPlayed;
+        byte[] previousKinds = kinds;
+        allocate(previousKinds.length << 1);
+        for (int i = 0; i < previousKinds.length; i++) {
+            if (previousKinds[i] != FREE) {
+                int slot = indexOf(previousIds[i]);
+                mediaIds[slot] = previousIds[i];
+                plays[slot] = previousPlays[i];
+                lastPlayed[slot] = previousLastPlayed[i];
+                kinds[slot] = previousKinds[i];
+            }
+        }
+    }
+
+    // Spreads sequential IDs over the table, finalizer of MurmurHash3
+    private static int hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.util.CandidateSampler;
+import com.example.recommendations.util.LongArrayList;
+import com.example.recommendations.util.LongSource;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.random.RandomGenerator;
+
+/**
+ * Most played media of all users, learned from the play histories the service
+ * already fetches, for users we know too little about. Plays are summed per media
+ * as histories are observed, only the plays added since the user's previous
+ * history count. A ranking of the top-k media overall and per genre is rebuilt
+ * in the background and swapped in at once, so drawing from it never calls a
+ * downstream service and costs at most O(k).
+ * Only a bounded number of media get a sum, every rebuild drops the least played
+ * back to half of that so media that become popular later still get counted.
+ * The last play counts per user are remembered for a bounded number of users.
+ */
+@Component
+public class PopularityIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PopularityIndex.class);
+
+    private final CatalogCache catalogCache;
+    private final Map<Long, LongAdder> playsByMedia = new ConcurrentHashMap<>();
+    private final Cache<String, PlayCounts> countedPlaysByUser;
+    private final AtomicReference<Ranking> ranking = new AtomicReference<>(Ranking.EMPTY);
+    private final int topK;
+    private final int maxMedia;
+
+    @Autowired
+    public PopularityIndex(CatalogCache catalogCache,
+                           @Value("${recommendations.popularity.top-k:200}") int topK,
+                           @Value("${recommendations.popularity.max-media:50000}") int maxMedia,
+                           @Value("${recommendations.popularity.max-users:10000}") long maxUsers) {
+        this.catalogCache = catalogCache;
+        this.topK = topK;
+        this.maxMedia = maxMedia;
+        this.countedPlaysByUser = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .build();
+    }
+
+    // Adds the plays of the user's history that weren't counted for this user before
+    public void observe(String userId, List<PlayedMediaDto> playedMedia) {
+        if (userId == null || playedMedia.isEmpty()) {
+            return;
+        }
+        PlayCounts current = PlayCounts.of(playedMedia);
+
+        // Plays added since the previous history of this user, decided atomically per user
+        LongArrayList addedIds = new LongArrayList();
+        LongArrayList addedPlays = new LongArrayList();
+        countedPlaysByUser.asMap().compute(userId, (user, counted) -> {
+            for (int i = 0; i < current.ids.length; i++) {
+                long added = current.plays[i] - (counted == null ? 0 : counted.playsOf(current.ids[i]));
+                if (added > 0) {
+                    addedIds.add(current.ids[i]);
+                    addedPlays.add(added);
+                }
+            }
+            return current;
+        });
+
+        for (int i = 0; i < addedIds.size(); i++) {
+            count(addedIds.get(i), addedPlays.get(i));
+        }
+    }
+
+    // Ranks the media again, those that left the catalog are dropped while a catalog is loaded
+    @Scheduled(fixedDelayString = "${recommendations.popularity.refresh-interval:PT1M}",
+            initialDelayString = "${recommendations.popularity.refresh-interval:PT1M}")
+    public void refresh() {
+        rebuild(catalogCache.current());
+    }
+
+    // Same as above against the given catalog
+    public void rebuild(CatalogSnapshot catalog) {
+        Ranking rebuilt = rank(catalog);
+        ranking.set(rebuilt);
+        log.debug("Popularity ranking rebuilt, {} media and {} genres", rebuilt.overall.length, rebuilt.byGenre.size());
+    }
+
+    // Passes up to count random media of the overall top-k to picked, returns how many were picked
+    public int sample(int count, LongPredicate excluded, RandomGenerator random, LongConsumer picked) {
+        if (count <= 0) {
+            return 0;
+        }
+        return CandidateSampler.sample(LongSource.of(ranking.get().overall), count, excluded, random, picked);
+    }
+
+    // Same as above from the top-k of the given genres
+    public int sampleOfGenres(Collection<Long> genreIds, int count, LongPredicate excluded,
+                              RandomGenerator random, LongConsumer picked) {
+        if (count <= 0 || genreIds.isEmpty()) {
+            return 0;
+        }
+        Map<Long, long[]> byGenre = ranking.get().byGenre;
+        LongArrayList candidates = new LongArrayList();
+        for (Long genreId : genreIds) {
+            for (long mediaId : byGenre.getOrDefault(genreId, new long[0])) {
+                candidates.add(mediaId);
+            }
+        }
+        // Media in several of the genres occur several times, picked ones are excluded by the caller
+        return CandidateSampler.sample(LongSource.of(candidates.toArray()), count, excluded, random, picked);
+    }
+
+    // Media of the overall ranking, most played first
+    public long[] topMedia() {
+        return ranking.get().overall.clone();
+    }
+
+    private void count(long mediaId, long plays) {
+        LongAdder sum = playsByMedia.get(mediaId);
+        if (sum == null) {
+            // Media beyond the bound aren't tracked until the next rebuild drops the least played
+            if (playsByMedia.size() >= maxMedia) {
+                return;
+            }
+            sum = playsByMedia.computeIfAbsent(mediaId, id -> new LongAdder());
+        }
+        sum.add(plays);
+    }
+
+    private Ranking rank(CatalogSnapshot catalog) {
+        boolean filter = !catalog.isEmpty();
+
+        LongArrayList ids = new LongArrayList();
+        LongArrayList plays = new LongArrayList();
+        playsByMedia.forEach((mediaId, sum) -> {
+            if (!filter || catalog.containsMedia(mediaId)) {
+                ids.add(mediaId);
+                plays.add(sum.sum());
+            } else {
+                playsByMedia.remove(mediaId, sum);
+            }
+        });
+
+        // Most played first, ties broken by ID so that rankings don't change for nothing
+        Integer[] order = new Integer[ids.size()];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> plays.get(a) != plays.get(b)
+                ? Long.compare(plays.get(b), plays.get(a))
+                : Long.compare(ids.get(a), ids.get(b)));
+
+        // The least played are dropped, leaving room for media that weren't counted yet
+        int retained = Math.max(maxMedia / 2, topK);
+        for (int i = retained; i < order.length; i++) {
+            playsByMedia.remove(ids.get(order[i]));
+        }
+
+        LongArrayList overall = new LongArrayList();
+        Map<Long, LongArrayList> byGenre = new HashMap<>();
+        for (int i = 0; i < Math.min(order.length, retained); i++) {
+            long mediaId = ids.get(order[i]);
+            if (overall.size() < topK) {
+                overall.add(mediaId);
+            }
+            for (long genreId : catalog.genreIdsOf(mediaId)) {
+                LongArrayList genre = byGenre.computeIfAbsent(genreId, id -> new LongArrayList());
+                if (genre.size() < topK) {
+                    genre.add(mediaId);
+                }
+            }
+        }
+
+        Map<Long, long[]> genres = new HashMap<>();
+        byGenre.forEach((genreId, media) -> genres.put(genreId, media.toArray()));
+        return new Ranking(overall.toArray(), Map.copyOf(genres));
+    }
+
+    // Top-k media overall and per genre ID, most played first
+    private record Ranking(long[] overall, Map<Long, long[]> byGenre) {
+
+        static final Ranking EMPTY = new Ranking(new long[0], Map.of());
+    }
+
+    // Play counts of one history, sorted by media ID
+    private static final class PlayCounts {
+
+        private final long[] ids;
+        private final long[] plays;
+
+        private PlayCounts(long[] ids, long[] plays) {
+            this.ids = ids;
+            this.plays = plays;
+        }
+
+        static PlayCounts of(List<PlayedMediaDto> playedMedia) {
+            Map<Long, Long> counts = PlayHistory.of(playedMedia).playCounts();
+            long[] ids = counts.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            long[] plays = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                plays[i] = counts.get(ids[i]);
+            }
+            return new PlayCounts(ids, plays);
+        }
+
+        long playsOf(long mediaId) {
+            int index = Arrays.binarySearch(ids, mediaId);
+            return index >= 0 ? plays[index] : 0;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.example.recommendations.dtos.RecommendationPageDto;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.dtos.UserRecommendationsDto;
+import org.springframework.security.oauth2.jwt.Jwt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface ReactiveRecommendationsInterface {
+
+    Mono<List<Long>> getRecommendations(Jwt jwt);
+    Flux<RecommendationDto> formatRecommendations(Jwt jwt);
+    Flux<RecommendationDto> streamRecommendations(Jwt jwt, int limit);
+    Mono<PrecomputedRecommendationsDto> getPrecomputedRecommendations(Jwt jwt);
+    Flux<UserRecommendationsDto> getBatchRecommendations(List<String> userIds, Jwt serviceJwt, int count);
+    Mono<RecommendationPageDto> getRecommendationPage(Jwt jwt, String cursor, int limit);
+}
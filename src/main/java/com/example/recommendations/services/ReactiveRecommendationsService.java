@@ -0,0 +1,223 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.clients.ReactiveMediaHandlingClient;
+import com.example.recommendations.clients.ReactiveMediaPlayerClient;
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.example.recommendations.dtos.RecommendationPageDto;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.dtos.UserRecommendationsDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Reactive variant of RecommendationsService, switched on with
+ * recommendations.reactive.enabled. Downstream calls of a request are composed
+ * without blocking a thread while they wait, with at most max-concurrency calls
+ * in flight per request. Selection, the catalog and the media details cache are
+ * the same as in the blocking service.
+ */
+@Service
+@ConditionalOnProperty(name = "recommendations.reactive.enabled", havingValue = "true")
+public class ReactiveRecommendationsService implements ReactiveRecommendationsInterface {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveRecommendationsService.class);
+
+    private final ReactiveMediaHandlingClient mediaHandlingClient;
+    private final ReactiveMediaPlayerClient mediaPlayerClient;
+    private final CatalogCache catalogCache;
+    private final GenreResolver genreResolver;
+    private final MediaDetailsCache mediaDetailsCache;
+    private final RecommendationSelector recommendationSelector;
+    private final RecommendationPipeline recommendationPipeline;
+    private final UserProfileStore userProfileStore;
+    private final RecommendationsService recommendationsService;
+    private final RecommendationMetrics recommendationMetrics;
+    private final boolean precomputeEnabled;
+    private final int maxConcurrency;
+    private final Duration requestTimeout;
+
+    @Autowired
+    public ReactiveRecommendationsService(ReactiveMediaHandlingClient mediaHandlingClient,
+                                          ReactiveMediaPlayerClient mediaPlayerClient,
+                                          CatalogCache catalogCache,
+                                          GenreResolver genreResolver,
+                                          MediaDetailsCache mediaDetailsCache,
+                                          RecommendationSelector recommendationSelector,
+                                          RecommendationPipeline recommendationPipeline,
+                                          UserProfileStore userProfileStore,
+                                          RecommendationsService recommendationsService,
+                                          RecommendationMetrics recommendationMetrics,
+                                          @Value("${recommendations.precompute.enabled:false}") boolean precomputeEnabled,
+                                          @Value("${recommendations.reactive.max-concurrency:16}") int maxConcurrency,
+                                          @Value("${recommendations.downstream.request-timeout:5s}") Duration requestTimeout) {
+        this.mediaHandlingClient = mediaHandlingClient;
+        this.mediaPlayerClient = mediaPlayerClient;
+        this.catalogCache = catalogCache;
+        this.genreResolver = genreResolver;
+        this.mediaDetailsCache = mediaDetailsCache;
+        this.recommendationSelector = recommendationSelector;
+        this.recommendationPipeline = recommendationPipeline;
+        this.userProfileStore = userProfileStore;
+        this.recommendationsService = recommendationsService;
+        this.recommendationMetrics = recommendationMetrics;
+        this.precomputeEnabled = precomputeEnabled;
+        this.maxConcurrency = maxConcurrency;
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public Mono<List<Long>> getRecommendations(Jwt jwt) {
+        return getRecommendations(jwt, 10);
+    }
+
+    // Same as above for any number of recommendations
+    public Mono<List<Long>> getRecommendations(Jwt jwt, int count) {
+        // Streaming history is fetched once, for played IDs, playCounts and likes
+        return Mono.zip(recommendationMetrics.time(RecommendationMetrics.HISTORY, playHistory(jwt)),
+                        recommendationMetrics.time(RecommendationMetrics.CATALOG, catalog(jwt)))
+                .flatMap(results -> {
+                    PlayHistory history = results.getT1();
+                    CatalogSnapshot catalog = results.getT2();
+                    // Same steps as the blocking service, only the genre lookup in between doesn't block
+                    Set<Long> unknownMedia = recommendationPipeline.observe(jwt.getSubject(), catalog, history);
+                    return recommendationMetrics.time(RecommendationMetrics.GENRES,
+                                    fetchGenresByMediaIds(unknownMedia, jwt))
+                            .map(genres -> recommendationPipeline.select(jwt.getSubject(), catalog, history, genres, count));
+                })
+                .timeout(requestTimeout)
+                .onErrorMap(TimeoutException.class, this::timedOut);
+    }
+
+    @Override
+    public Flux<RecommendationDto> formatRecommendations(Jwt jwt) {
+        // Details are fetched concurrently but emitted in the order of the recommendations
+        return getRecommendations(jwt)
+                .flatMapMany(ids -> hydrate(ids, jwt, true));
+    }
+
+    @Override
+    public Flux<RecommendationDto> streamRecommendations(Jwt jwt, int limit) {
+        // Each media is emitted as soon as its details arrive
+        return getRecommendations(jwt, limit)
+                .flatMapMany(ids -> hydrate(ids, jwt, false));
+    }
+
+    // Details of the recommended media, in the given order or as they arrive
+    private Flux<RecommendationDto> hydrate(List<Long> mediaIds, Jwt jwt, boolean ordered) {
+        recommendationMetrics.recordFanOut(RecommendationMetrics.HYDRATION, mediaIds.size());
+        Flux<Long> ids = Flux.fromIterable(mediaIds);
+        return recommendationMetrics.time(RecommendationMetrics.HYDRATION, ordered
+                ? ids.flatMapSequential(mediaId -> fetchRecommendation(mediaId, jwt), maxConcurrency)
+                : ids.flatMap(mediaId -> fetchRecommendation(mediaId, jwt), maxConcurrency));
+    }
+
+    @Override
+    public Mono<PrecomputedRecommendationsDto> getPrecomputedRecommendations(Jwt jwt) {
+        if (precomputeEnabled) {
+            // The store may be a file, so precomputed recommendations stay on the blocking service
+            return Mono.fromCallable(() -> recommendationsService.getPrecomputedRecommendations(jwt))
+                    .subscribeOn(Schedulers.boundedElastic());
+        }
+        return formatRecommendations(jwt).collectList()
+                .map(recommendations -> new PrecomputedRecommendationsDto(recommendations, Instant.now()));
+    }
+
+    @Override
+    public Flux<UserRecommendationsDto> getBatchRecommendations(List<String> userIds, Jwt serviceJwt, int count) {
+        // Batches are long-running jobs, the blocking service runs them on virtual threads off the event loop
+        // and writes every user to the sink, which serializes them, as soon as they are done
+        return Flux.<UserRecommendationsDto>create(sink -> {
+                    try {
+                        recommendationsService.getBatchRecommendations(userIds, serviceJwt, count, sink::next);
+                        sink.complete();
+                    } catch (RuntimeException e) {
+                        sink.error(e);
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<RecommendationPageDto> getRecommendationPage(Jwt jwt, String cursor, int limit) {
+        // Pages are computed by the blocking service, the same cursor works with both
+        return Mono.fromCallable(() -> recommendationsService.getRecommendationPage(jwt, cursor, limit))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Gets a list of top 3 genres based on what genres a user has played the most
+    public Mono<List<String>> calculateTopGenres(Jwt jwt) {
+        return mediaPlayerClient.getPlayedMedia(jwt)
+                .map(playedMedia -> PlayHistory.of(playedMedia).playCounts())
+                .flatMap(playCounts -> fetchGenresByMediaIds(playCounts.keySet(), jwt)
+                        .map(genres -> recommendationSelector.topGenreNames(playCounts, genres)))
+                .timeout(requestTimeout)
+                .onErrorMap(TimeoutException.class, this::timedOut);
+    }
+
+    // History of the user from their profile if it is up to date, fetched and kept as the profile otherwise
+    private Mono<PlayHistory> playHistory(Jwt jwt) {
+        return userProfileStore.get(jwt.getSubject())
+                .map(profile -> Mono.just(profile.toPlayHistory()))
+                .orElseGet(() -> Mono.defer(() -> {
+                    Instant fetchedAt = Instant.now();
+                    return mediaPlayerClient.getPlayedMedia(jwt)
+                            .doOnNext(playedMedia -> userProfileStore.seed(jwt.getSubject(), playedMedia, fetchedAt))
+                            .map(PlayHistory::of);
+                }));
+    }
+
+    // Genre names of the given media, chunked like the blocking GenreResolver
+    private Mono<Map<Long, List<String>>> fetchGenresByMediaIds(Set<Long> mediaIds, Jwt jwt) {
+        if (mediaIds.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return Flux.fromIterable(genreResolver.chunk(mediaIds))
+                .flatMap(chunk -> mediaHandlingClient.getGenresByMediaIds(chunk, jwt), maxConcurrency)
+                .<Map<Long, List<String>>>collect(HashMap::new, Map::putAll);
+    }
+
+    // Details of one media through the shared cache, empty if it doesn't exist or can't be fetched
+    private Mono<RecommendationDto> fetchRecommendation(Long mediaId, Jwt jwt) {
+        // Cancelling must not cancel the cached call, other requests may be waiting on it
+        return Mono.fromFuture(() -> mediaDetailsCache.get(mediaId, () -> mediaHandlingClient
+                        .getRecommendationByMediaId(mediaId, jwt)
+                        .map(Optional::of)
+                        .defaultIfEmpty(Optional.empty())
+                        .toFuture()), true)
+                .timeout(requestTimeout)
+                .flatMap(Mono::justOrEmpty)
+                .onErrorResume(e -> {
+                    log.warn("Failed to fetch media ID {}: {}", mediaId, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    // Catalog is held in memory, only its very first load blocks, and then not on an event loop thread
+    private Mono<CatalogSnapshot> catalog(Jwt jwt) {
+        if (!catalogCache.current().isEmpty()) {
+            return Mono.fromSupplier(() -> catalogCache.snapshot(jwt));
+        }
+        return Mono.fromCallable(() -> catalogCache.snapshot(jwt))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Same answer as the blocking service when a request runs past its deadline
+    private ResponseStatusException timedOut(TimeoutException e) {
+        return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Downstream services did not respond in time");
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.recommendations.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * ETags and Cache-Control of the endpoints that clients poll. What a user gets
+ * only changes with their profile or the catalog, so users with an up to date
+ * profile get a tag made of the profile's version and the catalog's version,
+ * both read from memory, and a poll whose If-None-Match still holds is
+ * answered with 304 before anything is fetched or computed. Everyone else,
+ * which is every user with profiles disabled, gets a tag made of the catalog's
+ * version and a hash of the body once it is computed: the work is done again,
+ * but an unchanged body isn't sent again. Recommendations are drawn anew on
+ * every computation, so those only repeat when precomputed. Tags are weak, two
+ * bodies under a profile's tag are equally good answers but not the same bytes.
+ */
+@Component
+public class RecommendationETags {
+
+    private static final Logger log = LoggerFactory.getLogger(RecommendationETags.class);
+
+    private final UserProfileStore userProfileStore;
+    private final CatalogCache catalogCache;
+    private final ObjectMapper objectMapper;
+    private final CacheControl cacheControl;
+
+    @Autowired
+    public RecommendationETags(UserProfileStore userProfileStore,
+                               CatalogCache catalogCache,
+                               ObjectMapper objectMapper,
+                               @Value("${recommendations.http-cache.max-age:60s}") Duration maxAge) {
+        this.userProfileStore = userProfileStore;
+        this.catalogCache = catalogCache;
+        this.objectMapper = objectMapper;
+        this.cacheControl = CacheControl.maxAge(maxAge).cachePrivate();
+    }
+
+    // Weak ETag of what the endpoint returns to the user, empty if it can't be told without computing it
+    public Optional<String> of(Jwt jwt, String endpoint) {
+        CatalogSnapshot catalog = catalogCache.current();
+        if (catalog.isEmpty()) {
+            return Optional.empty();
+        }
+        // A profile seeded again after being dropped starts over at version 1, when it was synced tells them apart
+        return userProfileStore.get(jwt.getSubject())
+                .map(profile -> "W/\"" + endpoint
+                        + "-" + Long.toHexString(profile.version())
+                        + "-" + Long.toHexString(profile.syncedAt().toEpochMilli())
+                        + "-" + Long.toHexString(catalog.version()) + "\"");
+    }
+
+    // 304 if If-None-Match holds the current ETag, otherwise the body computed by the supplier
+    public <T> ResponseEntity<T> respond(Jwt jwt, String endpoint, String ifNoneMatch, Supplier<T> body) {
+        Optional<String> eTag = of(jwt, endpoint);
+        if (eTag.isPresent()) {
+            return matches(ifNoneMatch, eTag.get()) ? notModified(eTag.get()) : ok(eTag).body(body.get());
+        }
+        return respondWith(endpoint, ifNoneMatch, body.get());
+    }
+
+    // Same as above for the reactive endpoints
+    public <T> Mono<ResponseEntity<T>> respondLater(Jwt jwt, String endpoint, String ifNoneMatch, Supplier<Mono<T>> body) {
+        Optional<String> eTag = of(jwt, endpoint);
+        if (eTag.isPresent()) {
+            return matches(ifNoneMatch, eTag.get()) ? Mono.just(notModified(eTag.get())) : body.get().map(ok(eTag)::body);
+        }
+        return body.get().map(computed -> respondWith(endpoint, ifNoneMatch, computed));
+    }
+
+    // Tagged by the catalog and what was computed, 304 if the client has that already
+    private <T> ResponseEntity<T> respondWith(String endpoint, String ifNoneMatch, T body) {
+        Optional<String> eTag = ofBody(endpoint, body);
+        if (eTag.isPresent() && matches(ifNoneMatch, eTag.get())) {
+            return notModified(eTag.get());
+        }
+        return ok(eTag).body(body);
+    }
+
+    // Weak ETag of a computed body, empty without a catalog or if the body can't be serialized
+    Optional<String> ofBody(String endpoint, Object body) {
+        CatalogSnapshot catalog = catalogCache.current();
+        if (catalog.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(body));
+            return Optional.of("W/\"" + endpoint
+                    + "-" + Long.toHexString(catalog.version())
+                    + "-" + HexFormat.of().formatHex(digest, 0, 8) + "\"");
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to tag the body of {}: {}", endpoint, e.getMessage());
+            return Optional.empty();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Whether an If-None-Match header holds the ETag, W/ prefixes are ignored as RFC 9110 asks for this header
+    public static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = opaque(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = opaque(candidate.trim());
+            if (candidate.equals("*") || candidate.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    private <T> ResponseEntity<T> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(cacheControl).build();
+    }
+
+    private ResponseEntity.BodyBuilder ok(Optional<String> eTag) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().cacheControl(cacheControl);
+        eTag.ifPresent(builder::eTag);
+        return builder;
+    }
+}
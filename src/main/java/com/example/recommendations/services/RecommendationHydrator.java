@@ -0,0 +1,78 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.RecommendationDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Turns recommended media IDs into RecommendationDtos. Media-handling has no
+ * endpoint returning several media at once, so details missing from the
+ * MediaDetailsCache are fetched concurrently, one call per media. They can be
+ * returned all at once or streamed one by one as they arrive.
+ */
+@Component
+public class RecommendationHydrator {
+
+    private static final Logger log = LoggerFactory.getLogger(RecommendationHydrator.class);
+
+    private final MediaDetailsCache mediaDetailsCache;
+    private final DownstreamExecutor downstreamExecutor;
+    private final int streamConcurrency;
+
+    @Autowired
+    public RecommendationHydrator(MediaDetailsCache mediaDetailsCache,
+                                  DownstreamExecutor downstreamExecutor,
+                                  @Value("${recommendations.streaming.max-concurrency:16}") int streamConcurrency) {
+        this.mediaDetailsCache = mediaDetailsCache;
+        this.downstreamExecutor = downstreamExecutor;
+        this.streamConcurrency = streamConcurrency;
+    }
+
+    // Details of every media in the given order, media that can't be fetched are left out
+    public List<RecommendationDto> hydrate(List<Long> mediaIds, Jwt jwt) {
+        Instant deadline = downstreamExecutor.deadline();
+
+        List<CompletableFuture<Optional<RecommendationDto>>> futures = new ArrayList<>(mediaIds.size());
+        for (Long mediaId : mediaIds) {
+            futures.add(mediaDetailsCache.get(mediaId, jwt));
+        }
+
+        List<RecommendationDto> recommendations = new ArrayList<>(mediaIds.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                downstreamExecutor.await(futures.get(i), deadline).ifPresent(recommendations::add);
+            } catch (RuntimeException e) {
+                log.warn("Failed to fetch media ID {}: {}", mediaIds.get(i), e.getMessage());
+            }
+        }
+        return recommendations;
+    }
+
+    // Details of every media as soon as they are fetched, in completion order. Only streamConcurrency
+    // media are fetched at a time, so memory doesn't grow with the number of media
+    public Flux<RecommendationDto> stream(List<Long> mediaIds, Jwt jwt) {
+        Duration timeout = downstreamExecutor.requestTimeout();
+
+        return Flux.fromIterable(mediaIds)
+                .flatMap(mediaId -> Mono.fromFuture(() -> mediaDetailsCache.get(mediaId, jwt), true)
+                        .timeout(timeout)
+                        .flatMap(Mono::justOrEmpty)
+                        .onErrorResume(e -> {
+                            log.warn("Failed to fetch media ID {}: {}", mediaId, e.getMessage());
+                            return Mono.empty();
+                        }), streamConcurrency);
+    }
+}
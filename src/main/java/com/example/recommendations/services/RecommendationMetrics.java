@@ -0,0 +1,105 @@
+package com.example.recommendations.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Where time goes while recommending. Every stage of a request is timed as
+ * recommendations.stage with a stage tag, and the sizes the work depends on
+ * (history, candidate pool, fan-out to downstream services) are recorded as
+ * distribution summaries named recommendations.<name>.
+ */
+@Component
+public class RecommendationMetrics {
+
+    public static final String STAGE = "recommendations.stage";
+
+    public static final String HISTORY = "history";
+    public static final String CATALOG = "catalog";
+    public static final String GENRES = "genres";
+    public static final String SELECTION = "selection";
+    public static final String HYDRATION = "hydration";
+
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public RecommendationMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        return time(stage, Tags.empty(), work);
+    }
+
+    // Selection is tagged with the strategy, so A/B groups can be compared
+    public <T> T timeSelection(String strategy, Supplier<T> work) {
+        return time(SELECTION, Tags.of("strategy", strategy), work);
+    }
+
+    public <T> Mono<T> time(String stage, Mono<T> work) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return work.doFinally(signal -> sample.stop(timer(stage, Tags.empty())));
+        });
+    }
+
+    public <T> Flux<T> time(String stage, Flux<T> work) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return work.doFinally(signal -> sample.stop(timer(stage, Tags.empty())));
+        });
+    }
+
+    // Number of plays in a user's history
+    public void recordHistorySize(int size) {
+        summary("history.size", "Plays in a user's history").record(size);
+    }
+
+    // Catalog media the user hasn't played, the pool every strategy draws from
+    public void recordCandidatePool(int size) {
+        summary("candidates.pool", "Media a recommendation is drawn from").record(size);
+    }
+
+    // Number of media looked up in one downstream step, e.g. genres or details
+    public void recordFanOut(String stage, int count) {
+        DistributionSummary.builder("recommendations.fanout")
+                .description("Media looked up downstream by one request")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(count);
+    }
+
+    private <T> T time(String stage, Tags tags, Supplier<T> work) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return work.get();
+        } finally {
+            sample.stop(timer(stage, tags));
+        }
+    }
+
+    private Timer timer(String stage, Tags tags) {
+        return Timer.builder(STAGE)
+                .description("Time spent in each stage of a recommendation request")
+                .tag("stage", stage)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary summary(String name, String description) {
+        return DistributionSummary.builder("recommendations." + name)
+                .description(description)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.recommendations.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The synchronous part of a recommendation request, shared by the blocking and
+ * the reactive service: from a fetched history and catalog to the recommended
+ * media IDs. Only the genre lookup of unknown media in between is left to the
+ * services, which fetch it the way they fetch everything else.
+ */
+@Component
+public class RecommendationPipeline {
+
+    private final RecommendationStrategies recommendationStrategies;
+    private final CoOccurrenceIndex coOccurrenceIndex;
+    private final PopularityIndex popularityIndex;
+    private final RecommendationMetrics recommendationMetrics;
+
+    @Autowired
+    public RecommendationPipeline(RecommendationStrategies recommendationStrategies,
+                                  CoOccurrenceIndex coOccurrenceIndex,
+                                  PopularityIndex popularityIndex,
+                                  RecommendationMetrics recommendationMetrics) {
+        this.recommendationStrategies = recommendationStrategies;
+        this.coOccurrenceIndex = coOccurrenceIndex;
+        this.popularityIndex = popularityIndex;
+        this.recommendationMetrics = recommendationMetrics;
+    }
+
+    // Takes in the history of a user and returns the media whose genres have to be fetched before select()
+    public Set<Long> observe(String userId, CatalogSnapshot catalog, PlayHistory history) {
+        recommendationMetrics.recordHistorySize(history.size());
+
+        // Learn which media are played together and which are played the most, from every history we fetch
+        if (history.isComplete()) {
+            coOccurrenceIndex.observe(userId, history.playedMedia());
+            popularityIndex.observe(userId, history.playedMedia());
+        }
+
+        // Only media the catalog doesn't know yet need a genre lookup
+        Set<Long> unknownMedia = history.genreCounts(catalog).unknownMediaIds();
+        recommendationMetrics.recordFanOut(RecommendationMetrics.GENRES, unknownMedia.size());
+        return unknownMedia;
+    }
+
+    // Recommendations of the user with the strategy they are assigned to
+    public List<Long> select(String userId, CatalogSnapshot catalog, PlayHistory history,
+                             Map<Long, List<String>> genresOfUnknownMedia, int count) {
+        // Candidates are generated lazily while sampling, so both are timed as the selection
+        RecommendationStrategy strategy = recommendationStrategies.forUser(userId);
+        recommendationMetrics.recordCandidatePool(Math.max(catalog.mediaCount() - history.size(), 0));
+        return recommendationMetrics.timeSelection(strategy.name(),
+                () -> strategy.recommend(catalog, history.mediaIds(), history, genresOfUnknownMedia, count));
+    }
+}
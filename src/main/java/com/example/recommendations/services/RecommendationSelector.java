@@ -0,0 +1,181 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.util.CandidateSampler;
+import com.example.recommendations.util.LongHashSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+
+/**
+ * Turns a user's play history into recommended media IDs. Only works on data
+ * that was already fetched, so the blocking and the reactive service share it.
+ * As a strategy it picks uniformly from the 3 most played genres. Plays of liked
+ * media count more, disliked media don't count, and genres the user mostly
+ * dislikes are left out. Users without history get the most played media of
+ * everyone, and picks that run short are filled from the most played media of
+ * the top genres before the whole catalog.
+ */
+@Component
+public class RecommendationSelector implements RecommendationStrategy {
+
+    public static final String NAME = "top-genres";
+
+    private final RandomGenerator random;
+    private final PopularityIndex popularityIndex;
+    private final double likedWeight;
+    private final double dislikedGenreShare;
+
+    @Autowired
+    public RecommendationSelector(RandomGenerator random,
+                                  PopularityIndex popularityIndex,
+                                  @Value("${recommendations.affinity.liked-weight:2.0}") double likedWeight,
+                                  @Value("${recommendations.signals.disliked-genre-share:0.5}") double dislikedGenreShare) {
+        this.random = random;
+        this.popularityIndex = popularityIndex;
+        this.likedWeight = likedWeight;
+        this.dislikedGenreShare = dislikedGenreShare;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<Long> recommend(CatalogSnapshot catalog,
+                                LongHashSet streamedMedia,
+                                PlayHistory history,
+                                Map<Long, List<String>> genresOfUnknownMedia,
+                                int count) {
+        MediaFilter filter = MediaFilter.of(catalog, streamedMedia, history, dislikedGenreShare);
+        Set<Long> topGenres = topGenreIds(history, catalog, genresOfUnknownMedia, filter);
+        return select(catalog, filter, topGenres, count);
+    }
+
+    // Top 3 genre IDs by the plays of their media, genres of media the catalog doesn't know are given by name
+    public Set<Long> topGenreIds(PlayHistory history,
+                                 CatalogSnapshot catalog,
+                                 Map<Long, List<String>> genresOfUnknownMedia,
+                                 MediaFilter filter) {
+
+        // Disliked media say nothing about what the user wants more of, liked media count more
+        GenreCounts counts = history.genreCounts(catalog);
+        double[] scores = new double[catalog.genreCount()];
+        BitSet played = new BitSet(catalog.genreCount());
+        for (int genreIndex = 0; genreIndex < scores.length; genreIndex++) {
+            if (counts.mediaCount(genreIndex) > counts.dislikedCount(genreIndex)) {
+                scores[genreIndex] = counts.score(genreIndex, likedWeight);
+                played.set(genreIndex);
+            }
+        }
+        for (PlayedMediaDto unknown : counts.unknownMedia()) {
+            if (unknown.isDisliked()) {
+                continue;
+            }
+            long plays = unknown.getPlayCount() == null ? 0 : unknown.getPlayCount();
+            for (String genre : genresOfUnknownMedia.getOrDefault(unknown.getMediaId(), List.of())) {
+                Long genreId = catalog.genreIdByName(genre);
+                if (genreId != null) {
+                    scores[catalog.genreIndex(genreId)] += unknown.isLiked() ? Math.max(plays, 1) * likedWeight : plays;
+                    played.set(catalog.genreIndex(genreId));
+                }
+            }
+        }
+
+        // Sort by score DESC, genres the user mostly dislikes left out
+        Set<Long> topGenres = new LinkedHashSet<>();
+        played.stream()
+                .filter(genreIndex -> !filter.isDislikedGenre(genreIndex))
+                .boxed()
+                .sorted((a, b) -> Double.compare(scores[b], scores[a]))
+                .limit(3)
+                .forEach(genreIndex -> topGenres.add(catalog.genreIdAt(genreIndex)));
+        return topGenres;
+    }
+
+    // Picks 10 media the user hasn't played, 8 from top genres and 2 from the others
+    public List<Long> select(CatalogSnapshot catalog, LongHashSet streamedMedia, Set<Long> topGenres) {
+        return select(catalog, streamedMedia, topGenres, 10);
+    }
+
+    // Same as above for any number of media, keeping 80% from top genres and 20% from the others
+    public List<Long> select(CatalogSnapshot catalog, LongHashSet streamedMedia, Set<Long> topGenres, int count) {
+        return select(catalog, MediaFilter.of(catalog, streamedMedia, PlayHistory.empty(), dislikedGenreShare), topGenres, count);
+    }
+
+    // Same as above, leaving out every media the filter excludes
+    public List<Long> select(CatalogSnapshot catalog, MediaFilter filter, Set<Long> topGenres, int count) {
+
+        // To return later
+        List<Long> recommendations = new ArrayList<>(count);
+
+        // Picked media are added to the filter, so nothing is recommended twice
+        LongConsumer recommend = id -> {
+            filter.exclude(id);
+            recommendations.add(id);
+        };
+
+        // Split genres into top genres and the others, genres the user mostly dislikes are in neither
+        int[] topGenreIndexes = topGenres.stream()
+                .mapToInt(catalog::genreIndex)
+                .filter(index -> index >= 0)
+                .toArray();
+        int[] otherGenreIndexes = IntStream.range(0, catalog.genreCount())
+                .filter(index -> !topGenres.contains(catalog.genreIdAt(index)) && !filter.isDislikedGenre(index))
+                .toArray();
+
+        int fromTopGenres = count * 8 / 10;
+
+        if (topGenres.isEmpty()) {
+            // Nothing is known about the user, what everyone plays the most is the best guess
+            popularityIndex.sample(count, filter, random, recommend);
+        } else {
+            // Randomize 8 of 10 recommendations based on top genres
+            CandidateSampler.sample(catalog.mediaOfGenres(topGenreIndexes), fromTopGenres, filter, random, recommend);
+
+            // Randomize last 2 of 10 recommendations from other genres..
+            CandidateSampler.sample(catalog.mediaOfGenres(otherGenreIndexes), count - fromTopGenres, filter, random, recommend);
+        }
+
+        // Prefer popular media of the top genres, then of all genres, if recommendations are still under count
+        popularityIndex.sampleOfGenres(topGenres, count - recommendations.size(), filter, random, recommend);
+        popularityIndex.sample(count - recommendations.size(), filter, random, recommend);
+
+        // Add more random media if recommendations are still under count
+        CandidateSampler.sample(catalog.allMedia(), count - recommendations.size(), filter, random, recommend);
+
+        return recommendations;
+    }
+
+    // Names of the 3 genres with the most plays
+    public List<String> topGenreNames(Map<Long, Long> playCountsByMediaIds, Map<Long, List<String>> genresByMediaIds) {
+
+        Map<String, Long> playCountPerGenre = new HashMap<>();
+        for(Map.Entry<Long, List<String>> entry : genresByMediaIds.entrySet()) {
+            Long mediaId = entry.getKey();
+            List<String> genres = entry.getValue();
+            Long playCount = playCountsByMediaIds.get(mediaId);
+
+            if (playCount == null) {
+                continue;
+            }
+            // Sum the plays of every media in the genre
+            for(String genre : genres) {
+                playCountPerGenre.merge(genre, playCount, Long::sum);
+            }
+        }
+
+        List<String> topGenres = playCountPerGenre.entrySet().stream().sorted(
+                Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(3)
+                .map(Map.Entry::getKey).toList();
+
+        return topGenres;
+    }
+}
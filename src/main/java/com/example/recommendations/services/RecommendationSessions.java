@@ -0,0 +1,160 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.util.FeistelPermutation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+/**
+ * Pages of top-genres recommendations that a client reads one after another,
+ * without the server keeping any state between pages. A session fixes a seed
+ * and the user's top genres; media of the top genres and media of the other
+ * genres are then read in two seeded permutations of the catalog, 80% of every
+ * page from the first and 20% from the second, and the cursor remembers how
+ * far each was read. A page costs about its own size no matter how deep it is,
+ * and no media comes up twice in a session. Sessions end when the catalog
+ * changes, as the permutations are over its positions.
+ */
+@Component
+public class RecommendationSessions {
+
+    public static final String NAME = "session";
+
+    private final RandomGenerator random;
+    private final RecommendationSelector recommendationSelector;
+    private final double dislikedGenreShare;
+
+    @Autowired
+    public RecommendationSessions(RandomGenerator random,
+                                  RecommendationSelector recommendationSelector,
+                                  @Value("${recommendations.signals.disliked-genre-share:0.5}") double dislikedGenreShare) {
+        this.random = random;
+        this.recommendationSelector = recommendationSelector;
+        this.dislikedGenreShare = dislikedGenreShare;
+    }
+
+    /**
+     * Media of one page and the cursor of the next, which is null once the catalog is read through.
+     */
+    public record Page(List<Long> mediaIds, String nextCursor) { }
+
+    // Next page of the session, or the first page of a new session if cursor is null
+    public Page page(CatalogSnapshot catalog,
+                     PlayHistory history,
+                     Map<Long, List<String>> genresOfUnknownMedia,
+                     String cursor,
+                     int count) {
+
+        MediaFilter filter = MediaFilter.of(catalog, history.mediaIds(), history, dislikedGenreShare);
+        SessionCursor session;
+        if (cursor == null) {
+            long[] topGenreIds = recommendationSelector.topGenreIds(history, catalog, genresOfUnknownMedia, filter)
+                    .stream().mapToLong(Long::longValue).toArray();
+            session = new SessionCursor(random.nextLong(), catalog.version(), topGenreIds, 0, 0);
+        } else {
+            session = SessionCursor.decode(cursor);
+            if (session.catalogVersion() != catalog.version()) {
+                throw new ResponseStatusException(HttpStatus.GONE, "The catalog changed, start a new session");
+            }
+        }
+
+        // Every genre gets a rank, top genres first, so a media is only read in the genre of its lowest rank
+        int[] ranks = new int[catalog.genreCount()];
+        Arrays.fill(ranks, -1);
+        int[] topGenreIndexes = Arrays.stream(session.topGenreIds())
+                .mapToInt(catalog::genreIndex)
+                .filter(index -> index >= 0)
+                .distinct()
+                .toArray();
+        int rank = 0;
+        for (int genreIndex : topGenreIndexes) {
+            ranks[genreIndex] = rank++;
+        }
+        int[] otherGenreIndexes = new int[catalog.genreCount() - topGenreIndexes.length];
+        int others = 0;
+        for (int genreIndex = 0; genreIndex < catalog.genreCount(); genreIndex++) {
+            if (ranks[genreIndex] < 0) {
+                ranks[genreIndex] = rank++;
+                otherGenreIndexes[others++] = genreIndex;
+            }
+        }
+
+        Part topGenres = new Part(catalog, ranks, topGenreIndexes, session.seed(), session.topGenresOffset());
+        Part otherGenres = new Part(catalog, ranks, otherGenreIndexes, ~session.seed(), session.otherGenresOffset());
+
+        // 80% from top genres and 20% from the others, one part fills in once the other ran out
+        List<Long> mediaIds = new ArrayList<>(count);
+        topGenres.read(count * 8 / 10, filter, mediaIds);
+        otherGenres.read(count - mediaIds.size(), filter, mediaIds);
+        topGenres.read(count - mediaIds.size(), filter, mediaIds);
+
+        String nextCursor = topGenres.isReadThrough() && otherGenres.isReadThrough()
+                ? null
+                : session.advance(topGenres.offset, otherGenres.offset).encode();
+        return new Page(mediaIds, nextCursor);
+    }
+
+    // Media of some genres one after another, read in the order of a seeded permutation
+    private static final class Part {
+
+        private final CatalogSnapshot catalog;
+        private final int[] ranks;
+        private final int[] genreIndexes;
+        // Media of genreIndexes[i] are at positions starts[i]..starts[i + 1]
+        private final int[] starts;
+        private final FeistelPermutation permutation;
+        private int offset;
+
+        private Part(CatalogSnapshot catalog, int[] ranks, int[] genreIndexes, long seed, int offset) {
+            this.catalog = catalog;
+            this.ranks = ranks;
+            this.genreIndexes = genreIndexes;
+            this.starts = new int[genreIndexes.length + 1];
+            for (int i = 0; i < genreIndexes.length; i++) {
+                starts[i + 1] = starts[i] + catalog.mediaCount(genreIndexes[i]);
+            }
+            this.permutation = new FeistelPermutation(seed, starts[genreIndexes.length]);
+            this.offset = Math.min(offset, permutation.size());
+        }
+
+        // Reads on until count media passed the filter or the part ran out
+        private void read(int count, MediaFilter filter, List<Long> mediaIds) {
+            int read = 0;
+            while (read < count && offset < permutation.size()) {
+                int position = permutation.get(offset++);
+
+                // Last genre starting at or before the position, genres without media are skipped over
+                int genre = Arrays.binarySearch(starts, position);
+                genre = genre < 0 ? -genre - 2 : genre;
+                while (starts[genre + 1] <= position) {
+                    genre++;
+                }
+
+                long mediaId = catalog.mediaIdAt(genreIndexes[genre], position - starts[genre]);
+                if (isFirstGenre(mediaId, ranks[genreIndexes[genre]]) && !filter.test(mediaId)) {
+                    mediaIds.add(mediaId);
+                    read++;
+                }
+            }
+        }
+
+        // Whether no genre of the media ranks before the given one
+        private boolean isFirstGenre(long mediaId, int rank) {
+            for (int genreIndex : catalog.genreIndexesOf(catalog.mediaIndex(mediaId))) {
+                if (ranks[genreIndex] < rank) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isReadThrough() {
+            return offset >= permutation.size();
+        }
+    }
+}
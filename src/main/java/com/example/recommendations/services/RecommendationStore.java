@@ -0,0 +1,15 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+
+import java.util.Optional;
+
+/**
+ * Keeps precomputed recommendations per user, keyed by the sub claim of the user's token.
+ */
+public interface RecommendationStore {
+
+    Optional<PrecomputedRecommendationsDto> get(String userId);
+
+    void put(String userId, PrecomputedRecommendationsDto recommendations);
+}
@@ -0,0 +1,67 @@
+package com.example.recommendations.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Splits users between two strategies for A/B testing. A user always lands in
+ * the same bucket out of 100, derived from the user ID, and buckets below the
+ * configured percentage get the experiment strategy.
+ */
+@Component
+public class RecommendationStrategies {
+
+    private final RecommendationStrategy control;
+    private final RecommendationStrategy experiment;
+    private final int experimentPercent;
+
+    @Autowired
+    public RecommendationStrategies(List<RecommendationStrategy> strategies,
+                                    @Value("${recommendations.strategy.control:" + RecommendationSelector.NAME + "}") String control,
+                                    @Value("${recommendations.strategy.experiment:" + GenreAffinityStrategy.NAME + "}") String experiment,
+                                    @Value("${recommendations.strategy.experiment-percent:0}") int experimentPercent) {
+        Map<String, RecommendationStrategy> byName = strategies.stream()
+                .collect(Collectors.toMap(RecommendationStrategy::name, Function.identity()));
+        this.experimentPercent = Math.min(Math.max(experimentPercent, 0), 100);
+        this.control = available(byName(byName, control));
+        this.experiment = this.experimentPercent == 0 ? byName(byName, experiment) : available(byName(byName, experiment));
+    }
+
+    // Strategy serving the given user
+    public RecommendationStrategy forUser(String userId) {
+        if (experimentPercent == 0 || userId == null) {
+            return control;
+        }
+        return bucket(userId) < experimentPercent ? experiment : control;
+    }
+
+    // Stable bucket 0-99, mixed so that similar IDs don't end up in neighbouring buckets
+    static int bucket(String userId) {
+        long hash = userId.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        return (int) Math.floorMod(hash, 100L);
+    }
+
+    private static RecommendationStrategy byName(Map<String, RecommendationStrategy> strategies, String name) {
+        RecommendationStrategy strategy = strategies.get(name);
+        if (strategy == null) {
+            throw new IllegalArgumentException("Unknown recommendation strategy " + name
+                    + ", expected one of " + strategies.keySet());
+        }
+        return strategy;
+    }
+
+    private static RecommendationStrategy available(RecommendationStrategy strategy) {
+        if (!strategy.isAvailable()) {
+            throw new IllegalArgumentException("Recommendation strategy " + strategy.name()
+                    + " is configured but not enabled");
+        }
+        return strategy;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.util.LongHashSet;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A way of choosing recommendations from a user's play history, users are
+ * split between strategies by RecommendationStrategies.
+ */
+public interface RecommendationStrategy {
+
+    // Name used in configuration and logs
+    String name();
+
+    // Whether what the strategy needs is enabled, users aren't split onto a strategy that isn't
+    default boolean isAvailable() {
+        return true;
+    }
+
+    // Up to count media of the catalog that are not in streamedMedia
+    List<Long> recommend(CatalogSnapshot catalog,
+                         LongHashSet streamedMedia,
+                         PlayHistory history,
+                         Map<Long, List<String>> genresOfUnknownMedia,
+                         int count);
+}
@@ -1,13 +1,22 @@
 package com.example.recommendations.services;
 
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.example.recommendations.dtos.RecommendationPageDto;
 import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.dtos.UserRecommendationsDto;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface RecommendationsInterface {
 
     List<Long> getRecommendations(Jwt jwt);
     List<RecommendationDto> formatRecommendations(Jwt jwt);
+    Flux<RecommendationDto> streamRecommendations(Jwt jwt, int limit);
+    PrecomputedRecommendationsDto getPrecomputedRecommendations(Jwt jwt);
+    void getBatchRecommendations(List<String> userIds, Jwt serviceJwt, int count, Consumer<UserRecommendationsDto> writer);
+    RecommendationPageDto getRecommendationPage(Jwt jwt, String cursor, int limit);
 }
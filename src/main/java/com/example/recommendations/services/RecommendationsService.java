@@ -3,115 +3,184 @@ package com.example.recommendations.services;
 import com.example.recommendations.clients.MediaHandlingClient;
 import com.example.recommendations.clients.MediaPlayerClient;
 import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
+import com.example.recommendations.dtos.RecommendationPageDto;
 import com.example.recommendations.dtos.RecommendationDto;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.example.recommendations.dtos.UserRecommendationsDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
-import org.springframework.web.client.RestClientResponseException;
-import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 @Service
 public class RecommendationsService implements RecommendationsInterface{
 
+    private static final Logger log = LoggerFactory.getLogger(RecommendationsService.class);
+
     private final MediaHandlingClient mediaHandlingClient;
     private final MediaPlayerClient mediaPlayerClient;
-    private final RestClient restClient;
-    private final LoadBalancerClient loadBalancer;
+    private final DownstreamExecutor downstreamExecutor;
+    private final GenreResolver genreResolver;
+    private final CatalogCache catalogCache;
+    private final RecommendationHydrator recommendationHydrator;
+    private final RecommendationSelector recommendationSelector;
+    private final RecommendationPipeline recommendationPipeline;
+    private final UserProfileStore userProfileStore;
+    private final RecommendationSessions recommendationSessions;
+    private final RecommendationStore recommendationStore;
+    private final RecommendationMetrics recommendationMetrics;
+    private final boolean precomputeEnabled;
+    private final Duration precomputeStaleAfter;
+    private final int batchConcurrency;
+
+    // Recomputed only when their user asks, with that request's token, so no user tokens are kept
+    private final Set<String> precomputing = ConcurrentHashMap.newKeySet();
 
     @Autowired
     public RecommendationsService(MediaHandlingClient mediaHandlingClient,
                                   MediaPlayerClient mediaPlayerClient,
-                                  RestClient.Builder restClientBuilder,
-                                  LoadBalancerClient loadBalancer) {
+                                  DownstreamExecutor downstreamExecutor,
+                                  GenreResolver genreResolver,
+                                  CatalogCache catalogCache,
+                                  RecommendationHydrator recommendationHydrator,
+                                  RecommendationSelector recommendationSelector,
+                                  RecommendationPipeline recommendationPipeline,
+                                  UserProfileStore userProfileStore,
+                                  RecommendationSessions recommendationSessions,
+                                  RecommendationStore recommendationStore,
+                                  RecommendationMetrics recommendationMetrics,
+                                  @Value("${recommendations.precompute.enabled:false}") boolean precomputeEnabled,
+                                  @Value("${recommendations.precompute.stale-after:10m}") Duration precomputeStaleAfter,
+                                  @Value("${recommendations.batch.max-concurrency:16}") int batchConcurrency) {
         this.mediaHandlingClient = mediaHandlingClient;
         this.mediaPlayerClient = mediaPlayerClient;
-        this.restClient = restClientBuilder.build();
-        this.loadBalancer = loadBalancer;
+        this.downstreamExecutor = downstreamExecutor;
+        this.genreResolver = genreResolver;
+        this.catalogCache = catalogCache;
+        this.recommendationHydrator = recommendationHydrator;
+        this.recommendationSelector = recommendationSelector;
+        this.recommendationPipeline = recommendationPipeline;
+        this.userProfileStore = userProfileStore;
+        this.recommendationSessions = recommendationSessions;
+        this.recommendationStore = recommendationStore;
+        this.recommendationMetrics = recommendationMetrics;
+        this.precomputeEnabled = precomputeEnabled;
+        this.precomputeStaleAfter = precomputeStaleAfter;
+        this.batchConcurrency = batchConcurrency;
     }
 
     @Override
     public List<Long> getRecommendations(Jwt jwt) {
-        // Get ID list of user's played media
-        List<Long> streamedMedia = mediaPlayerClient.getAllPlayedMedia(jwt);
-
-        // Get streaming history by songId:"playCount"
-        Map<Long, Long> playCounts = fetchPlayCountByMediaIds(jwt);
-
-        // Calculate top genres (max 3)
-        Set<Long> topGenres = new LinkedHashSet<>();
-        playCounts.entrySet().stream()
-                // Sort by playCount, DESC
-                .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
-                .forEach(entry -> {
-                    if (topGenres.size() < 3) {
-                        Long genreId = mediaHandlingClient.getGenreIdByMediaId(entry.getKey(), jwt);
-                        topGenres.add(genreId);
-                    }
-                });
-
-        // To return later
-        List<Long> recommendations = new ArrayList<>();
-
-        // Get 8 media based on top genres
-        List<Long> topGenreCandidates = new ArrayList<>();
-        for (Long genreId : topGenres) {
-            List<Long> media = mediaHandlingClient.getMediaIdsByGenreId(genreId, jwt);
-            media.stream()
-                    .filter(id -> !streamedMedia.contains(id))
-                    .forEach(topGenreCandidates::add);
-        }
+        return getRecommendations(jwt, 10);
+    }
 
-        // Randomize 8 recommendations
-        Collections.shuffle(topGenreCandidates);
-        int topGenrePickCount = Math.min(8, topGenreCandidates.size());
-        recommendations.addAll(topGenreCandidates.subList(0, topGenrePickCount));
-
-        // Get from other genres
-        List<Long> allGenres = new ArrayList<>(mediaHandlingClient.getAllGenreIds(jwt));
-        allGenres.removeAll(topGenres);
-
-        List<Long> otherGenreCandidates = new ArrayList<>();
-        for (Long otherGenre : allGenres) {
-            List<Long> media = mediaHandlingClient.getMediaIdsByGenreId(otherGenre, jwt);
-            media.stream()
-                    .filter(id -> !streamedMedia.contains(id))
-                    .filter(id -> !recommendations.contains(id))
-                    .forEach(otherGenreCandidates::add);
-        }
+    // Same as above for any number of recommendations
+    public List<Long> getRecommendations(Jwt jwt, int count) {
+        DownstreamCalls calls = downstreamExecutor.newCalls();
 
-        // Randomize last 2 recommendations..
-        Collections.shuffle(otherGenreCandidates);
-        int otherPickCount = Math.min(2, otherGenreCandidates.size());
-        recommendations.addAll(otherGenreCandidates.subList(0, otherPickCount));
+        // Start fetching the history while the catalog is read, unless the user's profile is up to date
+        CompletableFuture<PlayHistory> historyFuture = playHistory(jwt, calls);
 
-        // Add more random media if recommendations are still under 10
-        if (recommendations.size() < 10) {
-            List<Long> allMedia = mediaHandlingClient.getAllMediaIds(jwt);
+        // Genres and their media are the same for every user, read them from memory
+        CatalogSnapshot catalog = recommendationMetrics.time(RecommendationMetrics.CATALOG,
+                () -> catalogCache.snapshot(jwt));
 
-            List<Long> unused = allMedia.stream()
-                    .filter(id -> !streamedMedia.contains(id))
-                    .filter(id -> !recommendations.contains(id))
-                    .toList();
+        // Streaming history, read once for played IDs, playCounts and likes
+        // Timed from here, the part of the fetch that didn't overlap the catalog read
+        PlayHistory history = recommendationMetrics.time(RecommendationMetrics.HISTORY,
+                () -> calls.await(historyFuture));
+        return recommend(jwt.getSubject(), catalog, history, jwt, count);
+    }
 
-            for (Long id : unused) {
-                if (recommendations.size() >= 10) break;
-                recommendations.add(id);
-            }
+    @Override
+    public void getBatchRecommendations(List<String> userIds, Jwt serviceJwt, int count,
+                                        Consumer<UserRecommendationsDto> writer) {
+        // One catalog for the whole batch, read before any history is fetched
+        CatalogSnapshot catalog = recommendationMetrics.time(RecommendationMetrics.CATALOG,
+                () -> catalogCache.snapshot(serviceJwt));
+
+        // Users are computed in parallel on virtual threads, at most batchConcurrency at a time, history
+        // and genre lookups included, and every user is written as soon as they are done, one at a time
+        Semaphore running = new Semaphore(batchConcurrency);
+        Lock writing = new ReentrantLock();
+        List<CompletableFuture<Void>> users = new ArrayList<>();
+        for (String userId : new LinkedHashSet<>(userIds)) {
+            running.acquireUninterruptibly();
+            users.add(downstreamExecutor.run(() -> recommendUserOfBatch(userId, catalog, serviceJwt, count))
+                    .thenAccept(user -> {
+                        writing.lock();
+                        try {
+                            writer.accept(user);
+                        } finally {
+                            writing.unlock();
+                        }
+                    })
+                    .whenComplete((done, e) -> running.release()));
+        }
+        // Only the writer fails, e.g. once the caller went away
+        CompletableFuture.allOf(users.toArray(CompletableFuture[]::new)).join();
+    }
+
+    // Recommendations of one user of a batch, with the error instead if they can't be computed
+    private UserRecommendationsDto recommendUserOfBatch(String userId, CatalogSnapshot catalog, Jwt serviceJwt, int count) {
+        try {
+            return new UserRecommendationsDto(userId,
+                    recommend(userId, catalog, fetchPlayHistory(userId, serviceJwt), serviceJwt, count), null);
+        } catch (RuntimeException e) {
+            log.warn("Failed to compute recommendations of user {}: {}", userId, e.getMessage());
+            return new UserRecommendationsDto(userId, List.of(), e.getMessage());
         }
+    }
 
-        return recommendations;
+    // Recommendations of one user from an already fetched history and catalog
+    private List<Long> recommend(String userId, CatalogSnapshot catalog, PlayHistory history, Jwt jwt, int count) {
+        Set<Long> unknownMedia = recommendationPipeline.observe(userId, catalog, history);
+        Map<Long, List<String>> genresOfUnknownMedia = recommendationMetrics.time(RecommendationMetrics.GENRES,
+                () -> fetchGenresByMediaIds(unknownMedia, jwt));
+        return recommendationPipeline.select(userId, catalog, history, genresOfUnknownMedia, count);
+    }
+
+    // Genres of media the catalog doesn't know yet, fetched from media-handling for a new session
+    private Map<Long, List<String>> fetchGenresOfUnknownMedia(CatalogSnapshot catalog, PlayHistory history, Jwt jwt) {
+        Set<Long> unknownMedia = history.genreCounts(catalog).unknownMediaIds();
+        recommendationMetrics.recordFanOut(RecommendationMetrics.GENRES, unknownMedia.size());
+        return recommendationMetrics.time(RecommendationMetrics.GENRES,
+                () -> fetchGenresByMediaIds(unknownMedia, jwt));
+    }
+
+    @Override
+    public RecommendationPageDto getRecommendationPage(Jwt jwt, String cursor, int limit) {
+        DownstreamCalls calls = downstreamExecutor.newCalls();
+        CompletableFuture<PlayHistory> historyFuture = playHistory(jwt, calls);
+        CatalogSnapshot catalog = recommendationMetrics.time(RecommendationMetrics.CATALOG,
+                () -> catalogCache.snapshot(jwt));
+        PlayHistory history = recommendationMetrics.time(RecommendationMetrics.HISTORY,
+                () -> calls.await(historyFuture));
+
+        // Top genres are only computed when a session starts, later pages take them from the cursor
+        Map<Long, List<String>> genresOfUnknownMedia = cursor == null
+                ? fetchGenresOfUnknownMedia(catalog, history, jwt)
+                : Map.of();
+        RecommendationSessions.Page page = recommendationMetrics.timeSelection(RecommendationSessions.NAME,
+                () -> recommendationSessions.page(catalog, history, genresOfUnknownMedia, cursor, limit));
+
+        recommendationMetrics.recordFanOut(RecommendationMetrics.HYDRATION, page.mediaIds().size());
+        List<RecommendationDto> recommendations = recommendationMetrics.time(RecommendationMetrics.HYDRATION,
+                () -> recommendationHydrator.hydrate(page.mediaIds(), jwt));
+        return new RecommendationPageDto(recommendations, page.nextCursor());
     }
 
     @Override
@@ -119,103 +188,117 @@ public class RecommendationsService implements RecommendationsInterface{
         // Get IDs of recommendations
         List<Long> recommendationIds = getRecommendations(jwt);
 
-        // Store final recommendations in presentable format
-        List<RecommendationDto> recommendations = new ArrayList<>();
-
-        ObjectMapper mapper = new ObjectMapper(); // create mapper
-        mapper.registerModule(new JavaTimeModule()); // make mapper support parsing of LocalDate in media
-        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS); // get better date format
-
-        // For each ID, use media-handling for mapping ID into RecommendationDto
-        for (Long id : recommendationIds) {
-            try {
-                String mediaJson = mediaHandlingClient.getMediaByMediaId(id, jwt);
-
-                RecommendationDto dto =
-                        mapper.readValue(mediaJson, RecommendationDto.class);
-
-                recommendations.add(dto);
-
-            } catch (Exception e) {
-                System.err.println("Failed to parse media ID " + id + ": " + e.getMessage());
-            }
-        }
+        // Fetch details of all recommendations at once, in presentable format
+        recommendationMetrics.recordFanOut(RecommendationMetrics.HYDRATION, recommendationIds.size());
+        return recommendationMetrics.time(RecommendationMetrics.HYDRATION,
+                () -> recommendationHydrator.hydrate(recommendationIds, jwt));
+    }
 
-        return recommendations;
+    @Override
+    public Flux<RecommendationDto> streamRecommendations(Jwt jwt, int limit) {
+        // Choosing is quick and done up front, details are sent one by one as they arrive
+        List<Long> recommendationIds = getRecommendations(jwt, limit);
+        recommendationMetrics.recordFanOut(RecommendationMetrics.HYDRATION, recommendationIds.size());
+        return recommendationMetrics.time(RecommendationMetrics.HYDRATION,
+                recommendationHydrator.stream(recommendationIds, jwt));
     }
 
-    // Fetches play count for each media id from media-player service
-    public Map<Long, Long> fetchPlayCountByMediaIds(Jwt jwt) {
+    @Override
+    public PrecomputedRecommendationsDto getPrecomputedRecommendations(Jwt jwt) {
+        if (!precomputeEnabled) {
+            return new PrecomputedRecommendationsDto(formatRecommendations(jwt), Instant.now());
+        }
 
-        String token = jwt.getTokenValue();
+        String userId = jwt.getSubject();
 
-        ServiceInstance serviceInstance = loadBalancer.choose("media-player");
-        if (serviceInstance == null) {
-            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The service is not available");
+        Optional<PrecomputedRecommendationsDto> stored = recommendationStore.get(userId);
+        if (stored.isEmpty()) {
+            return precompute(userId, jwt);
         }
 
-        try {
-            List<PlayedMediaDto> playedMedias = restClient.get()
-                    .uri(serviceInstance.getUri() + "/api/v1/mediaplayer/allplayed")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                    .retrieve()
-                    .body(new ParameterizedTypeReference<List<PlayedMediaDto>>() {
-                    });
-
-            if (playedMedias == null) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "Received null response from media-player service");
-            }
-            return playedMedias.stream()
-                    .collect(Collectors.toMap(PlayedMediaDto::getMediaId, PlayedMediaDto::getPlayCount));
-
-        } catch (RestClientResponseException e) {
-            if (e.getStatusCode().value() == 404) {
-                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Media not found");
-            } else {
-                throw new ResponseStatusException(HttpStatus.valueOf(e.getStatusCode().value()),
-                        "Something went wrong when fetching media id:s: " + e.getResponseBodyAsString());
-            }
+        // Answer with what we have, fresher recommendations are ready for the next request
+        if (isStale(stored.get())) {
+            precomputeInBackground(userId, jwt);
         }
+        return stored.get();
     }
 
-    // Fetches genres by the media id:s that has been played the most
-    public Map<Long, List<String>> fetchGenresByMediaIds(Set<Long> mediaIds, Jwt jwt) {
-
-        if (mediaIds == null || mediaIds.isEmpty()) {
-            return Collections.emptyMap();
+    private PrecomputedRecommendationsDto precompute(String userId, Jwt jwt) {
+        PrecomputedRecommendationsDto recommendations =
+                new PrecomputedRecommendationsDto(formatRecommendations(jwt), Instant.now());
+        // The user still gets what was computed, the next request computes again
+        try {
+            recommendationStore.put(userId, recommendations);
+        } catch (RuntimeException e) {
+            log.warn("Failed to store the recommendations of user {}", userId, e);
         }
+        return recommendations;
+    }
 
-        ServiceInstance serviceInstance = loadBalancer.choose("media-handling");
-        if (serviceInstance == null) {
-            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The service is not available");
+    // Starts recomputing recommendations of a user, unless that's already going on
+    private void precomputeInBackground(String userId, Jwt jwt) {
+        if (!precomputing.add(userId)) {
+            return;
         }
+        Thread.startVirtualThread(() -> {
+            try {
+                precompute(userId, jwt);
+            } catch (RuntimeException e) {
+                log.warn("Failed to precompute recommendations of user {}", userId, e);
+            } finally {
+                precomputing.remove(userId);
+            }
+        });
+    }
 
-        String token = jwt.getTokenValue();
+    private boolean isStale(PrecomputedRecommendationsDto recommendations) {
+        return recommendations.getComputedAt().plus(precomputeStaleAfter).isBefore(Instant.now());
+    }
 
-        try {
-            String idsParam = mediaIds.stream()
-                    .map(String::valueOf)
-                    .collect(Collectors.joining(","));
+    // Fetches play count for each media id from media-player service
+    public Map<Long, Long> fetchPlayCountByMediaIds(Jwt jwt) {
+        return PlayHistory.of(fetchPlayedMedia(jwt)).playCounts();
+    }
 
-            String url = serviceInstance.getUri() + "/api/v1/mediahandling/genresbymediaids?mediaIds=" + idsParam;
+    // Play history of the user, read from their profile if it is up to date
+    private CompletableFuture<PlayHistory> playHistory(Jwt jwt, DownstreamCalls calls) {
+        return userProfileStore.get(jwt.getSubject())
+                .map(profile -> CompletableFuture.completedFuture(profile.toPlayHistory()))
+                .orElseGet(() -> fetchPlayHistory(jwt, calls));
+    }
 
-            Map<Long, List<String>> genresByMediaIds = restClient.get()
-                    .uri(url)
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
-                    .retrieve()
-                    .body(new ParameterizedTypeReference<Map<Long, List<String>>>() {});
+    // Play history of the user, fetched at most once per request and kept as the user's profile
+    private CompletableFuture<PlayHistory> fetchPlayHistory(Jwt jwt, DownstreamCalls calls) {
+        return calls.submit(MediaPlayerClient.SERVICE_NAME, MediaPlayerClient.PLAYED_MEDIA_PATH, jwt, () -> {
+            Instant fetchedAt = Instant.now();
+            List<PlayedMediaDto> playedMedia = fetchPlayedMedia(jwt);
+            userProfileStore.seed(jwt.getSubject(), playedMedia, fetchedAt);
+            return PlayHistory.of(playedMedia);
+        });
+    }
 
-            if (genresByMediaIds == null) {
-                return Collections.emptyMap();
-            }
+    // Same as above for a user of a batch, read from their profile if it is up to date
+    private PlayHistory fetchPlayHistory(String userId, Jwt serviceJwt) {
+        Optional<UserProfile> profile = userProfileStore.get(userId);
+        if (profile.isPresent()) {
+            return profile.get().toPlayHistory();
+        }
+        return downstreamExecutor.await(downstreamExecutor.submit(MediaPlayerClient.SERVICE_NAME, () -> {
+            Instant fetchedAt = Instant.now();
+            List<PlayedMediaDto> playedMedia = mediaPlayerClient.getPlayedMedia(userId, serviceJwt);
+            userProfileStore.seed(userId, playedMedia, fetchedAt);
+            return PlayHistory.of(playedMedia);
+        }), downstreamExecutor.deadline());
+    }
 
-            return genresByMediaIds;
+    // Fetches the user's play history from media-player service
+    public List<PlayedMediaDto> fetchPlayedMedia(Jwt jwt) {
+        return mediaPlayerClient.getPlayedMedia(jwt);
+    }
 
-        } catch (RestClientResponseException e) {
-            throw new ResponseStatusException(HttpStatus.valueOf(e.getStatusCode().value()),
-                    "Error fetching genres: " + e.getResponseBodyAsString());
-        }
+    // Fetches genres by the media id:s that has been played the most
+    public Map<Long, List<String>> fetchGenresByMediaIds(Set<Long> mediaIds, Jwt jwt) {
+        return genreResolver.resolveGenres(mediaIds, jwt, downstreamExecutor.deadline());
     }
 
     // Gets a list of top 3 genres based on what genres a user has played the most
@@ -225,23 +308,7 @@ public class RecommendationsService implements RecommendationsInterface{
 
         Map<Long, List<String>> genresByMediaIds = fetchGenresByMediaIds(playCountsByMediaIds.keySet(), jwt);
 
-        Map<String, Long> playCountPerGenre = new HashMap<>();
-        for(Map.Entry<Long, List<String>> entry : genresByMediaIds.entrySet()) {
-            Long mediaId = entry.getKey();
-            List<String> genres = entry.getValue();
-            Long playCount = playCountsByMediaIds.get(mediaId);
-
-            for(String genre : genres) {
-                playCountPerGenre.put(genre, playCount);
-            }
-        }
-
-        List<String> topGenres = playCountPerGenre.entrySet().stream().sorted(
-                Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
-                .limit(3)
-                .map(Map.Entry::getKey).toList();
-
-        return topGenres;
+        return recommendationSelector.topGenreNames(playCountsByMediaIds, genresByMediaIds);
     }
 
 }
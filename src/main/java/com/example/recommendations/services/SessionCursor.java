@@ -0,0 +1,101 @@
+package com.example.recommendations.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Where a client is in a session of recommendation pages, handed out as an
+ * opaque URL-safe token so the server keeps no state. Holds the seed of the
+ * session's candidate ordering, the version of the catalog the ordering is
+ * over, the top genres it was computed with and how far each part of the
+ * ordering was read.
+ */
+public final class SessionCursor {
+
+    private static final byte FORMAT = 1;
+
+    private final long seed;
+    private final long catalogVersion;
+    private final long[] topGenreIds;
+    private final int topGenresOffset;
+    private final int otherGenresOffset;
+
+    public SessionCursor(long seed, long catalogVersion, long[] topGenreIds, int topGenresOffset, int otherGenresOffset) {
+        this.seed = seed;
+        this.catalogVersion = catalogVersion;
+        this.topGenreIds = topGenreIds;
+        this.topGenresOffset = topGenresOffset;
+        this.otherGenresOffset = otherGenresOffset;
+    }
+
+    // Reads a token made by encode, 400 if it isn't one
+    public static SessionCursor decode(String token) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+            if (buffer.get() != FORMAT) {
+                throw invalid();
+            }
+            long seed = buffer.getLong();
+            long catalogVersion = buffer.getLong();
+            int topGenresOffset = buffer.getInt();
+            int otherGenresOffset = buffer.getInt();
+            long[] topGenreIds = new long[buffer.get()];
+            for (int i = 0; i < topGenreIds.length; i++) {
+                topGenreIds[i] = buffer.getLong();
+            }
+            if (buffer.hasRemaining() || topGenresOffset < 0 || otherGenresOffset < 0) {
+                throw invalid();
+            }
+            return new SessionCursor(seed, catalogVersion, topGenreIds, topGenresOffset, otherGenresOffset);
+        } catch (IllegalArgumentException | BufferUnderflowException | NegativeArraySizeException e) {
+            throw invalid();
+        }
+    }
+
+    public String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 4 + 4 + 1 + 8 * topGenreIds.length)
+                .put(FORMAT)
+                .putLong(seed)
+                .putLong(catalogVersion)
+                .putInt(topGenresOffset)
+                .putInt(otherGenresOffset)
+                .put((byte) topGenreIds.length);
+        for (long genreId : topGenreIds) {
+            buffer.putLong(genreId);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    // Same session, read up to the given offsets
+    public SessionCursor advance(int topGenresOffset, int otherGenresOffset) {
+        return new SessionCursor(seed, catalogVersion, topGenreIds, topGenresOffset, otherGenresOffset);
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public long catalogVersion() {
+        return catalogVersion;
+    }
+
+    public long[] topGenreIds() {
+        return topGenreIds;
+    }
+
+    public int topGenresOffset() {
+        return topGenresOffset;
+    }
+
+    public int otherGenresOffset() {
+        return otherGenresOffset;
+    }
+
+    private static ResponseStatusException invalid() {
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
+    }
+}
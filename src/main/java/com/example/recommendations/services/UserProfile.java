@@ -0,0 +1,224 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.util.LongHashSet;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * A user's plays and likes kept between requests, so the full history doesn't
+ * have to be downloaded every time. Seeded from one full history and then
+ * updated by play events. Plays are kept as primitive counters per media, and
+ * per genre of the catalog read last, which every event updates in place, so
+ * a request reads the genre counts without going over the history. Requests
+ * get the media played last, the like and dislike sets, which an event
+ * replaces rather than modifies, and a copy of the genre counts made once per
+ * change. The events received last are kept too, so a profile seeded again
+ * from a history fetched before they arrived doesn't lose them, and plays the
+ * fetched history already has aren't counted twice.
+ */
+public final class UserProfile {
+
+    // Events received during one fetch of a history, with plenty to spare
+    private static final int RECENT_EVENTS = 256;
+    // Media handed to requests as the user's latest plays, e.g. as co-occurrence seeds
+    private static final int RECENT_MEDIA = 64;
+
+    private final Instant syncedAt;
+    private final long halfLifeMillis;
+    private final PlayedMediaTable playedMedia;
+    // Played last first
+    private final Deque<Long> recentMedia = new ArrayDeque<>();
+    private final Deque<Received> recentEvents = new ArrayDeque<>();
+    private LongHashSet likedMediaIds;
+    private LongHashSet dislikedMediaIds;
+    private long version;
+    // Counted on first read for a catalog and then kept up to date
+    private GenreCounts genreCounts;
+    // Copies of the above handed out, made on first read after a change
+    private GenreCounts sharedGenreCounts;
+    private PlayHistory history;
+
+    private record Received(PlayEventDto event, Instant at) { }
+
+    private UserProfile(PlayedMediaTable playedMedia, long version, Instant syncedAt, long halfLifeMillis) {
+        this.playedMedia = playedMedia;
+        this.version = version;
+        this.syncedAt = syncedAt;
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    // Profile of a full history fetched at syncedAt, plays halved every halfLifeMillis since they were last played
+    public static UserProfile of(List<PlayedMediaDto> playedMedia, long version, Instant syncedAt, long halfLifeMillis) {
+        UserProfile profile = new UserProfile(PlayedMediaTable.of(playedMedia), version, syncedAt, halfLifeMillis);
+        PlayedMediaTable table = profile.playedMedia;
+
+        // The latest media, played with a date before without, then the most played
+        PriorityQueue<Integer> latest = new PriorityQueue<>(Comparator
+                .comparingLong(table::lastPlayed)
+                .thenComparingLong(table::plays));
+        LongHashSet liked = new LongHashSet();
+        LongHashSet disliked = new LongHashSet();
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (!table.isUsed(slot)) {
+                continue;
+            }
+            if (table.kind(slot) == PlayedMediaTable.LIKED) {
+                liked.add(table.mediaId(slot));
+            } else if (table.kind(slot) == PlayedMediaTable.DISLIKED) {
+                disliked.add(table.mediaId(slot));
+            }
+            latest.add(slot);
+            if (latest.size() > RECENT_MEDIA) {
+                latest.poll();
+            }
+        }
+        while (!latest.isEmpty()) {
+            profile.recentMedia.addFirst(table.mediaId(latest.poll()));
+        }
+        profile.likedMediaIds = liked;
+        profile.dislikedMediaIds = disliked;
+        return profile;
+    }
+
+    // Profile of a newer full history, with the events received since it was fetched that it doesn't have applied again
+    public synchronized UserProfile reseed(List<PlayedMediaDto> playedMedia, Instant fetchedAt) {
+        UserProfile profile = of(playedMedia, version + 1, fetchedAt, halfLifeMillis);
+        // Decided against the history as it was fetched, before anything is replayed on top of it
+        List<Received> missing = new ArrayList<>();
+        for (Received received : recentEvents) {
+            if (received.at().isAfter(fetchedAt) && !profile.contains(received.event())) {
+                missing.add(received);
+            }
+        }
+        for (Received received : missing) {
+            profile.apply(received.event(), received.at());
+        }
+        return profile;
+    }
+
+    // Whether the history has the event already. Likes are states, setting them again changes nothing,
+    // a play is in it once media-player reports the media last played at or after it
+    private boolean contains(PlayEventDto event) {
+        if (event.getType() != PlayEventDto.Type.PLAYED) {
+            return false;
+        }
+        int slot = playedMedia.slot(event.getMediaId());
+        if (slot < 0) {
+            return false;
+        }
+        // Without dates there is no telling, the play is left to the next fetch rather than counted twice
+        long lastPlayed = playedMedia.lastPlayed(slot);
+        return lastPlayed == PlayedMediaTable.UNDATED || event.getOccurredAt() == null
+                || lastPlayed >= event.getOccurredAt().toEpochMilli();
+    }
+
+    // Applies the event, media the profile didn't know yet are added
+    public void apply(PlayEventDto event) {
+        apply(event, Instant.now());
+    }
+
+    private synchronized void apply(PlayEventDto event, Instant receivedAt) {
+        long mediaId = event.getMediaId();
+        int slot = playedMedia.slot(mediaId);
+        if (slot < 0) {
+            slot = playedMedia.add(mediaId);
+        } else if (genreCounts != null) {
+            // Taken out with its old counters and added again with the new ones
+            genreCounts.count(playedMedia, slot, -1);
+        }
+
+        byte kind = playedMedia.kind(slot);
+        switch (event.getType()) {
+            case PLAYED -> {
+                playedMedia.addPlays(slot, event.getPlayCount() == null ? 1 : event.getPlayCount(),
+                        event.getOccurredAt() == null ? PlayedMediaTable.UNDATED : event.getOccurredAt().toEpochMilli(),
+                        receivedAt.toEpochMilli());
+                recentMedia.remove(mediaId);
+                recentMedia.addFirst(mediaId);
+                if (recentMedia.size() > RECENT_MEDIA) {
+                    recentMedia.removeLast();
+                }
+            }
+            case LIKED -> playedMedia.setKind(slot, PlayedMediaTable.LIKED);
+            case DISLIKED -> playedMedia.setKind(slot, PlayedMediaTable.DISLIKED);
+            case CLEARED -> playedMedia.setKind(slot, PlayedMediaTable.NEUTRAL);
+        }
+        if (genreCounts != null) {
+            genreCounts.count(playedMedia, slot, 1);
+        }
+
+        // Histories handed out share the sets, so they are replaced instead
+        if (kind != playedMedia.kind(slot)) {
+            likedMediaIds = with(likedMediaIds, mediaId, playedMedia.kind(slot) == PlayedMediaTable.LIKED);
+            dislikedMediaIds = with(dislikedMediaIds, mediaId, playedMedia.kind(slot) == PlayedMediaTable.DISLIKED);
+        }
+
+        recentEvents.addLast(new Received(event, receivedAt));
+        if (recentEvents.size() > RECENT_EVENTS) {
+            recentEvents.removeFirst();
+        }
+        sharedGenreCounts = null;
+        history = null;
+        version++;
+    }
+
+    // Same shape as a history fetched from media-player, with the media played last as playedMedia()
+    public synchronized PlayHistory toPlayHistory() {
+        if (history == null) {
+            List<PlayedMediaDto> recent = new ArrayList<>(recentMedia.size());
+            for (long mediaId : recentMedia) {
+                recent.add(playedMedia.toDto(playedMedia.slot(mediaId)));
+            }
+            history = PlayHistory.of(this, recent, playedMedia.size(), likedMediaIds, dislikedMediaIds);
+        }
+        return history;
+    }
+
+    // Plays per genre of the catalog, only counted again from every media when the catalog changed
+    synchronized GenreCounts genreCounts(CatalogSnapshot catalog) {
+        // Weights of new plays grow from the reference on, so it is moved up every half-life
+        if (genreCounts == null || !genreCounts.isFor(catalog)
+                || (halfLifeMillis > 0 && Instant.now().toEpochMilli() - genreCounts.reference() > halfLifeMillis)) {
+            genreCounts = GenreCounts.of(playedMedia, catalog, halfLifeMillis);
+            sharedGenreCounts = null;
+        }
+        if (sharedGenreCounts == null) {
+            sharedGenreCounts = genreCounts.copy();
+        }
+        return sharedGenreCounts;
+    }
+
+    // Goes up with every change, also across a new seed of the same user
+    public synchronized long version() {
+        return version;
+    }
+
+    // When the full history this profile started from was fetched
+    public Instant syncedAt() {
+        return syncedAt;
+    }
+
+    public synchronized int size() {
+        return playedMedia.size();
+    }
+
+    // Copy of the set with or without the media
+    private static LongHashSet with(LongHashSet mediaIds, long mediaId, boolean contained) {
+        if (mediaIds.contains(mediaId) == contained) {
+            return mediaIds;
+        }
+        LongHashSet copy = new LongHashSet(mediaIds.size() + 1);
+        for (long id : mediaIds.toArray()) {
+            if (id != mediaId) {
+                copy.add(id);
+            }
+        }
+        if (contained) {
+            copy.add(mediaId);
+        }
+        return copy;
+    }
+}
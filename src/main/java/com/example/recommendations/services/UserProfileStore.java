@@ -0,0 +1,92 @@
+package com.example.recommendations.services;
+
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Profiles of the users seen recently, so a request can read the user's plays
+ * from memory instead of fetching the full history again. A profile is seeded
+ * from a full history and kept up to date by play events; events of users
+ * without a profile are dropped, their next request fetches the history anyway.
+ * Profiles are fetched again after resync-after, in case an event got lost;
+ * events received while that history was being fetched are kept on top of it.
+ * Profiles live in a bounded Caffeine cache, whose map locks per entry, so
+ * events of different users are applied in parallel.
+ */
+@Component
+public class UserProfileStore {
+
+    private final Cache<String, UserProfile> profiles;
+    private final boolean enabled;
+    private final Duration resyncAfter;
+    private final long halfLifeMillis;
+
+    @Autowired
+    public UserProfileStore(@Value("${recommendations.profiles.enabled:false}") boolean enabled,
+                            @Value("${recommendations.profiles.max-users:100000}") long maxUsers,
+                            @Value("${recommendations.profiles.idle-timeout:1h}") Duration idleTimeout,
+                            @Value("${recommendations.profiles.resync-after:6h}") Duration resyncAfter,
+                            @Value("${recommendations.affinity.half-life:30d}") Duration halfLife) {
+        this.enabled = enabled;
+        this.resyncAfter = resyncAfter;
+        // Genre counts of a profile are weighed like GenreAffinityStrategy weighs them
+        this.halfLifeMillis = halfLife.toMillis();
+        this.profiles = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(idleTimeout)
+                .build();
+    }
+
+    // Profile of the user, empty if there is none or it is due to be fetched again
+    public Optional<UserProfile> get(String userId) {
+        if (!enabled || userId == null) {
+            return Optional.empty();
+        }
+        UserProfile profile = profiles.getIfPresent(userId);
+        if (profile == null || !Instant.now().isBefore(profile.syncedAt().plus(resyncAfter))) {
+            return Optional.empty();
+        }
+        return Optional.of(profile);
+    }
+
+    // Starts the user's profile over from a full history that was fetched from fetchedAt on
+    public void seed(String userId, List<PlayedMediaDto> playedMedia, Instant fetchedAt) {
+        // Failed fetches throw before getting here, so an empty history is a new user and kept as well
+        if (!enabled || userId == null) {
+            return;
+        }
+        profiles.asMap().compute(userId, (user, previous) -> {
+            if (previous == null) {
+                return UserProfile.of(playedMedia, 1, fetchedAt, halfLifeMillis);
+            }
+            // Another request may have seeded the profile from a history fetched later
+            return previous.syncedAt().isAfter(fetchedAt) ? previous : previous.reseed(playedMedia, fetchedAt);
+        });
+    }
+
+    // Applies an event to the profile of its user, false if the user has no profile
+    public boolean apply(PlayEventDto event) {
+        if (!enabled || event.getUserId() == null || event.getMediaId() == null || event.getType() == null) {
+            return false;
+        }
+        return profiles.asMap().computeIfPresent(event.getUserId(), (user, profile) -> {
+            profile.apply(event);
+            return profile;
+        }) != null;
+    }
+
+    // Number of profiles held
+    public long size() {
+        return profiles.estimatedSize();
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.recommendations.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.random.RandomGenerator;
+
+/**
+ * Picks random candidates without materializing or shuffling the candidate pool.
+ * Positions are drawn as a lazily generated Fisher-Yates permutation, so only the
+ * positions that were swapped are remembered and drawing stops as soon as enough
+ * candidates are accepted. Work and memory are proportional to the number of
+ * draws, which is the quota plus the number of excluded candidates hit.
+ */
+public final class CandidateSampler {
+
+    private CandidateSampler() { }
+
+    // Passes up to count distinct, not excluded values of the source to picked, returns how many were picked
+    public static int sample(LongSource source,
+                             int count,
+                             LongPredicate excluded,
+                             RandomGenerator random,
+                             LongConsumer picked) {
+
+        int size = source.size();
+        Map<Integer, Integer> swapped = new HashMap<>();
+        int accepted = 0;
+
+        for (int i = 0; i < size && accepted < count; i++) {
+            int j = i + random.nextInt(size - i);
+
+            // Swap position i and j of the virtual permutation, position i is never read again
+            int position = swapped.getOrDefault(j, j);
+            Integer displaced = swapped.remove(i);
+            if (j != i) {
+                swapped.put(j, displaced != null ? displaced : i);
+            }
+
+            long candidate = source.get(position);
+            if (!excluded.test(candidate)) {
+                picked.accept(candidate);
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
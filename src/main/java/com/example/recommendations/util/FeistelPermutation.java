@@ -0,0 +1,66 @@
+package com.example.recommendations.util;
+
+/**
+ * A pseudo-random permutation of 0..size-1 given by a seed, where any position
+ * is computed on its own in constant expected time, without storing the
+ * permutation. Runs a small Feistel network over the next power of 4 and walks
+ * the cycle until the result falls inside the range, which takes fewer than 4
+ * steps on average. Not a cryptographic permutation, only a well mixed one.
+ */
+public final class FeistelPermutation {
+
+    private static final int ROUNDS = 4;
+
+    private final long seed;
+    private final int size;
+    private final int halfBits;
+    private final long halfMask;
+
+    public FeistelPermutation(long seed, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        this.seed = seed;
+        this.size = size;
+
+        // Both halves get the same number of bits, so the network covers 4^halfBits >= size values
+        int bits = size <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(size - 1L);
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Value at this position of the permutation
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        long value = index;
+        do {
+            value = encrypt(value);
+        } while (value >= size);
+        return (int) value;
+    }
+
+    private long encrypt(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+        for (int round = 0; round < ROUNDS; round++) {
+            long next = left ^ (mix(right, round) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    // Round function, the SplitMix64 finalizer over the seed, round and half
+    private long mix(long half, int round) {
+        long z = seed + (round + 1) * 0x9E3779B97F4A7C15L + half * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
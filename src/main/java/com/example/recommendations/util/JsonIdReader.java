@@ -0,0 +1,63 @@
+package com.example.recommendations.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads IDs out of a JSON array of objects, like the media lists of
+ * media-handling, one token at a time. Other fields are skipped without being
+ * turned into objects, so memory grows with the number of IDs and not with the
+ * size of the response.
+ */
+public final class JsonIdReader {
+
+    // Thread-safe once configured, parsers are cheap to create from it
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonIdReader() { }
+
+    // Values of the field in every object of the array, objects without a numeric value for it are skipped
+    public static long[] read(InputStream json, String field) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            LongArrayList ids = new LongArrayList();
+
+            // Anything but an array, an empty body included, has no IDs
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return ids.toArray();
+            }
+
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    boolean isIdField = field.equals(parser.currentName());
+                    JsonToken value = parser.nextToken();
+                    if (isIdField && value == JsonToken.VALUE_NUMBER_INT) {
+                        ids.add(parser.getLongValue());
+                    } else if (isIdField && value == JsonToken.VALUE_STRING) {
+                        addIfNumber(ids, parser.getText());
+                    } else {
+                        // Nested objects and arrays are passed over without reading them
+                        parser.skipChildren();
+                    }
+                }
+            }
+            return ids.toArray();
+        }
+    }
+
+    private static void addIfNumber(LongArrayList ids, String text) {
+        try {
+            ids.add(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            // Not an ID, skipped like a missing one
+        }
+    }
+}
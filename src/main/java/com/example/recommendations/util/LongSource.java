@@ -0,0 +1,26 @@
+package com.example.recommendations.util;
+
+/**
+ * Read-only, indexed sequence of primitive longs, e.g. the media of a few
+ * genres seen as one list without copying them.
+ */
+public interface LongSource {
+
+    int size();
+
+    long get(int index);
+
+    static LongSource of(long[] values) {
+        return new LongSource() {
+            @Override
+            public int size() {
+                return values.length;
+            }
+
+            @Override
+            public long get(int index) {
+                return values[index];
+            }
+        };
+    }
+}
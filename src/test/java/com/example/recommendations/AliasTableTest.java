@@ -0,0 +1,48 @@
+package com.example.recommendations;
+
+import com.example.recommendations.util.AliasTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for drawing weighted indexes with the alias method.
+ */
+public class AliasTableTest {
+
+    @Test
+    void testDrawsInProportionToWeights() {
+        AliasTable table = new AliasTable(new double[]{1, 0, 3, 6});
+        SplittableRandom random = new SplittableRandom(7);
+
+        int[] counts = new int[4];
+        int draws = 100_000;
+        for (int i = 0; i < draws; i++) {
+            counts[table.sample(random)]++;
+        }
+
+        assertEquals(0, counts[1]);
+        assertEquals(0.1, counts[0] / (double) draws, 0.01);
+        assertEquals(0.3, counts[2] / (double) draws, 0.01);
+        assertEquals(0.6, counts[3] / (double) draws, 0.01);
+    }
+
+    @Test
+    void testSingleWeightIsAlwaysDrawn() {
+        AliasTable table = new AliasTable(new double[]{0, 0, 2.5});
+        SplittableRandom random = new SplittableRandom(1);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(2, table.sample(random));
+        }
+    }
+
+    @Test
+    void testRejectsInvalidWeights() {
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[0]));
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[]{0, 0}));
+        assertThrows(IllegalArgumentException.class, () -> new AliasTable(new double[]{1, -1}));
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.recommendations;
+
+import com.example.recommendations.util.CandidateSampler;
+import com.example.recommendations.util.LongSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for picking random candidates without shuffling the whole pool.
+ */
+public class CandidateSamplerTest {
+
+    private static final long[] CANDIDATES = {1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L};
+
+    @Test
+    void testPicksDistinctCandidatesThatAreNotExcluded() {
+        List<Long> picked = new ArrayList<>();
+
+        int count = CandidateSampler.sample(LongSource.of(CANDIDATES), 4,
+                id -> id % 2 == 0, new SplittableRandom(1), picked::add);
+
+        assertEquals(4, count);
+        assertEquals(4, new HashSet<>(picked).size());
+        assertTrue(picked.stream().allMatch(id -> id % 2 == 1));
+    }
+
+    @Test
+    void testStopsWhenPoolIsExhausted() {
+        List<Long> picked = new ArrayList<>();
+
+        int count = CandidateSampler.sample(LongSource.of(CANDIDATES), 8,
+                id -> id > 3, new SplittableRandom(1), picked::add);
+
+        assertEquals(3, count);
+        assertEquals(List.of(1L, 2L, 3L), picked.stream().sorted().toList());
+    }
+
+    @Test
+    void testSameSeedGivesSameSample() {
+        List<Long> first = new ArrayList<>();
+        List<Long> second = new ArrayList<>();
+
+        CandidateSampler.sample(LongSource.of(CANDIDATES), 5, id -> false, new SplittableRandom(42), first::add);
+        CandidateSampler.sample(LongSource.of(CANDIDATES), 5, id -> false, new SplittableRandom(42), second::add);
+
+        assertEquals(first, second);
+    }
+}
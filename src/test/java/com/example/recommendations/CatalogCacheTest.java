@@ -0,0 +1,76 @@
+package com.example.recommendations;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.clients.ServiceTokenClient;
+import com.example.recommendations.services.CatalogCache;
+import com.example.recommendations.services.DownstreamExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.*;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for loading and refreshing the catalog without keeping user tokens.
+ */
+public class CatalogCacheTest {
+
+    @Mock private MediaHandlingClient mediaHandlingClient;
+    @Mock private Jwt jwt;
+    @Mock private Jwt otherJwt;
+
+    DownstreamExecutor downstreamExecutor;
+    ServiceTokenClient unconfigured = new ServiceTokenClient(RestClient.builder(), "", "", "");
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        downstreamExecutor = new DownstreamExecutor(4, 4, Duration.ofSeconds(5), Duration.ofSeconds(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        downstreamExecutor.destroy();
+    }
+
+    @Test
+    void testEmptyCatalogIsNotLoadedOnEveryRequest() {
+        when(mediaHandlingClient.getGenreIdsByName(any())).thenReturn(Map.of());
+        when(mediaHandlingClient.getAllMediaIds(any())).thenReturn(new long[0]);
+        CatalogCache cache = new CatalogCache(mediaHandlingClient, downstreamExecutor, unconfigured, "",
+                Duration.ofMinutes(5), Duration.ofMinutes(1));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(cache.snapshot(jwt).isEmpty());
+        }
+
+        verify(mediaHandlingClient, times(1)).getAllMediaIds(any());
+    }
+
+    @Test
+    void testDueCatalogIsRefreshedWithTheTokenOfARequest() {
+        when(mediaHandlingClient.getGenreIdsByName(any())).thenReturn(Map.of("Rock", 1L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(eq(1L), any())).thenReturn(new long[]{1L, 2L});
+        when(mediaHandlingClient.getAllMediaIds(any())).thenReturn(new long[]{1L, 2L});
+        CatalogCache cache = new CatalogCache(mediaHandlingClient, downstreamExecutor, unconfigured, "",
+                Duration.ZERO, Duration.ofMinutes(1));
+
+        cache.snapshot(jwt);
+        cache.snapshot(otherJwt);
+
+        // The second request found the catalog due and refreshed it with its own token
+        verify(mediaHandlingClient, timeout(1000)).getAllMediaIds(otherJwt);
+
+        // Without a service token, the scheduled refresh has no token to use
+        cache.refresh();
+        verify(mediaHandlingClient, times(1)).getAllMediaIds(jwt);
+        verify(mediaHandlingClient, times(1)).getAllMediaIds(otherJwt);
+    }
+}
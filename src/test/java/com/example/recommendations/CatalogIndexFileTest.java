@@ -0,0 +1,83 @@
+package com.example.recommendations;
+
+import com.example.recommendations.services.CatalogIndexFile;
+import com.example.recommendations.services.CatalogSnapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for persisting the catalog snapshot between restarts.
+ */
+public class CatalogIndexFileTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWrittenSnapshotIsReadBack() throws Exception {
+        CatalogSnapshot snapshot = CatalogSnapshot.of(
+                Map.of(100L, List.of(101L, 102L), 200L, List.of(102L, 201L)),
+                List.of(101L, 102L, 201L, 301L),
+                Map.of("Rock", 100L, "Pop", 200L),
+                Instant.ofEpochMilli(1_000L));
+        Path file = directory.resolve("catalog.idx");
+
+        CatalogIndexFile.write(snapshot, file);
+        CatalogSnapshot read = CatalogIndexFile.read(file).orElseThrow();
+
+        assertEquals(snapshot.version(), read.version());
+        assertEquals(snapshot.loadedAt(), read.loadedAt());
+        assertEquals(4, read.mediaCount());
+        assertEquals(2, read.mediaCount(read.genreIndex(200L)));
+        assertArrayEquals(new long[]{100L, 200L}, read.genreIdsOf(102L));
+        assertEquals(200L, read.genreIdByName("Pop"));
+    }
+
+    @Test
+    void testDamagedFileIsIgnored() throws Exception {
+        CatalogSnapshot snapshot = CatalogSnapshot.of(
+                Map.of(100L, List.of(101L, 102L)), List.of(101L, 102L), Map.of(), Instant.now());
+        Path file = directory.resolve("catalog.idx");
+        CatalogIndexFile.write(snapshot, file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        assertTrue(CatalogIndexFile.read(file).isEmpty());
+        assertTrue(CatalogIndexFile.read(directory.resolve("missing.idx")).isEmpty());
+    }
+
+    @Test
+    void testDamagedLengthsAreIgnoredBeforeAllocating() throws Exception {
+        CatalogSnapshot snapshot = CatalogSnapshot.of(
+                Map.of(100L, List.of(101L)), List.of(101L), Map.of("Rock", 100L), Instant.now());
+        Path file = directory.resolve("catalog.idx");
+        CatalogIndexFile.write(snapshot, file);
+        byte[] written = Files.readAllBytes(file);
+
+        // The length of the only name is right before its 4 bytes
+        for (int nameLength : new int[]{Integer.MAX_VALUE, -1, 5}) {
+            ByteBuffer bytes = ByteBuffer.wrap(written.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.putInt(written.length - 8, nameLength);
+            Files.write(file, bytes.array());
+            assertTrue(CatalogIndexFile.read(file).isEmpty());
+        }
+
+        // Same for the count of media IDs in the header
+        ByteBuffer bytes = ByteBuffer.wrap(written.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(4 + 4 + 8 + 8 + 4 + 4, Integer.MAX_VALUE);
+        Files.write(file, bytes.array());
+        assertTrue(CatalogIndexFile.read(file).isEmpty());
+    }
+}
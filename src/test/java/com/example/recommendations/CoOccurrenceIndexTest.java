@@ -0,0 +1,131 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit test for learning co-played media from play histories.
+ */
+public class CoOccurrenceIndexTest {
+
+    @Test
+    void testCandidatesAreOrderedByHowOftenTheyWerePlayedTogether() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(true, 10, 1000, 200, 1000, 20, 100);
+
+        index.count("a", history(1L, 2L, 3L));
+        index.count("b", history(1L, 2L));
+        index.count("c", history(1L, 2L, 4L));
+
+        // 2 was played with 1 three times, 3 and 4 once each
+        List<Long> candidates = index.candidates(history(1L), 10, id -> id == 1L);
+
+        assertEquals(2L, candidates.get(0));
+        assertEquals(List.of(3L, 4L), candidates.subList(1, 3).stream().sorted().toList());
+    }
+
+    @Test
+    void testSameHistoryIsOnlyCountedOncePerUser() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(true, 10, 1000, 200, 1000, 20, 100);
+
+        // Counted for "a" three times this would beat 3
+        index.count("a", history(1L, 2L));
+        index.count("a", history(1L, 2L));
+        index.count("a", history(1L, 2L));
+        index.count("b", history(1L, 3L));
+        index.count("c", history(1L, 3L));
+
+        assertEquals(List.of(3L, 2L), index.candidates(history(1L), 10, id -> id == 1L));
+    }
+
+    @Test
+    void testMergesNeighborsOfSeveralSeedsWithoutDuplicates() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(true, 10, 1000, 200, 1000, 20, 100);
+
+        index.count("a", history(1L, 10L, 11L));
+        index.count("b", history(2L, 11L, 12L));
+
+        List<Long> candidates = index.candidates(history(1L, 2L), 10, id -> id == 1L || id == 2L);
+
+        assertEquals(List.of(10L, 11L, 12L), candidates.stream().sorted().toList());
+    }
+
+    @Test
+    void testNeighborListsAndMediaStayBounded() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(true, 3, 50, 200, 1000, 20, 100);
+
+        for (int user = 0; user < 100; user++) {
+            index.count("user-" + user, history(1L, 1000L + user));
+        }
+
+        assertTrue(index.size() <= 50);
+        assertTrue(index.candidates(history(1L), 100, id -> false).size() <= 3);
+    }
+
+    @Test
+    void testMediaCoPlayedOnceAllListsAreTakenStillGetOne() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(true, 3, 50, 200, 1000, 20, 100);
+        for (int user = 0; user < 25; user++) {
+            index.count("user-" + user, history(1000L + 2 * user, 1001L + 2 * user));
+        }
+        assertEquals(50, index.size());
+
+        // The weakest half makes room, what is played together from now on is learned
+        index.count("a", history(1L, 2L));
+        index.count("b", history(1L, 2L));
+
+        assertTrue(index.size() <= 50);
+        assertEquals(List.of(2L), index.candidates(history(1L), 10, id -> id == 1L));
+    }
+
+    @Test
+    void testObservedHistoriesAreCountedInTheBackground() throws InterruptedException {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(true, 10, 1000, 200, 1000, 20, 100);
+        index.start();
+
+        assertTrue(index.observe("a", history(1L, 2L)));
+
+        for (int i = 0; i < 100 && index.candidates(history(1L), 10, id -> id == 1L).isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(2L), index.candidates(history(1L), 10, id -> id == 1L));
+        index.destroy();
+    }
+
+    @Test
+    void testDisabledIndexCountsNothingAndCantBeChosen() {
+        CoOccurrenceIndex index = new CoOccurrenceIndex(false, 10, 1000, 200, 1000, 20, 100);
+
+        assertFalse(index.observe("a", history(1L, 2L)));
+        index.count("a", history(1L, 2L));
+        assertEquals(0, index.size());
+        index.start();
+        index.destroy();
+
+        RecommendationSelector selector = new RecommendationSelector(new SplittableRandom(1),
+                mock(PopularityIndex.class), 2.0, 0.5);
+        CoOccurrenceStrategy strategy = new CoOccurrenceStrategy(index, selector, 0.7, 0.5);
+        assertThrows(IllegalArgumentException.class, () -> new RecommendationStrategies(List.of(selector, strategy),
+                CoOccurrenceStrategy.NAME, RecommendationSelector.NAME, 0));
+        new RecommendationStrategies(List.of(selector, strategy), RecommendationSelector.NAME, CoOccurrenceStrategy.NAME, 0);
+    }
+
+    // History where earlier media were played more
+    private static List<PlayedMediaDto> history(Long... mediaIds) {
+        List<PlayedMediaDto> history = new ArrayList<>();
+        for (int i = 0; i < mediaIds.length; i++) {
+            PlayedMediaDto dto = new PlayedMediaDto();
+            dto.setMediaId(mediaIds[i]);
+            dto.setPlayCount((long) (mediaIds.length - i));
+            history.add(dto);
+        }
+        return history;
+    }
+}
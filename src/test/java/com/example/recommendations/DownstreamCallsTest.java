@@ -0,0 +1,73 @@
+package com.example.recommendations;
+
+import com.example.recommendations.services.DownstreamCalls;
+import com.example.recommendations.services.DownstreamExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for sharing identical downstream calls within one request.
+ */
+public class DownstreamCallsTest {
+
+    private final DownstreamExecutor downstreamExecutor = new DownstreamExecutor(4, 4, Duration.ofSeconds(5), Duration.ofSeconds(1));
+
+    @AfterEach
+    void tearDown() {
+        downstreamExecutor.destroy();
+    }
+
+    @Test
+    void testIdenticalCallsAreMadeOnce() {
+        DownstreamCalls calls = downstreamExecutor.newCalls();
+        AtomicInteger made = new AtomicInteger();
+
+        CompletableFuture<Integer> first = calls.submit("media-player", "/allplayed", jwt("a"), made::incrementAndGet);
+        CompletableFuture<Integer> second = calls.submit("media-player", "/allplayed", jwt("a"), made::incrementAndGet);
+
+        assertSame(first, second);
+        assertEquals(1, calls.await(second));
+        assertEquals(1, made.get());
+    }
+
+    @Test
+    void testCallsWithOtherPathOrTokenAreNotShared() {
+        DownstreamCalls calls = downstreamExecutor.newCalls();
+        AtomicInteger made = new AtomicInteger();
+
+        calls.await(calls.submit("media-player", "/allplayed", jwt("a"), made::incrementAndGet));
+        calls.await(calls.submit("media-player", "/liked", jwt("a"), made::incrementAndGet));
+        calls.await(calls.submit("media-player", "/allplayed", jwt("b"), made::incrementAndGet));
+
+        assertEquals(3, made.get());
+        assertEquals(3, calls.size());
+    }
+
+    @Test
+    void testNewRequestMakesCallsAgain() {
+        AtomicInteger made = new AtomicInteger();
+
+        DownstreamCalls first = downstreamExecutor.newCalls();
+        first.await(first.submit("media-player", "/allplayed", jwt("a"), made::incrementAndGet));
+        DownstreamCalls second = downstreamExecutor.newCalls();
+        second.await(second.submit("media-player", "/allplayed", jwt("a"), made::incrementAndGet));
+
+        assertEquals(2, made.get());
+    }
+
+    private static Jwt jwt(String token) {
+        return Jwt.withTokenValue(token)
+                .header("alg", "none")
+                .subject("user")
+                .expiresAt(Instant.now().plus(Duration.ofHours(1)))
+                .build();
+    }
+}
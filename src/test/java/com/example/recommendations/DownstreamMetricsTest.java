@@ -0,0 +1,62 @@
+package com.example.recommendations;
+
+import com.example.recommendations.clients.DownstreamMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import reactor.core.publisher.Mono;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for DownstreamMetrics, calls are counted per service, endpoint and outcome.
+ */
+public class DownstreamMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private DownstreamMetrics metrics;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new DownstreamMetrics(meterRegistry);
+    }
+
+    @Test
+    void testTime_recordsOutcomeOfBlockingCalls() {
+        assertEquals("ok", metrics.time("media-player", "/played", () -> "ok"));
+        assertThrows(HttpClientErrorException.class, () -> metrics.time("media-player", "/played", () -> {
+            throw HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null);
+        }));
+        assertThrows(ResourceAccessException.class, () -> metrics.time("media-player", "/played", () -> {
+            throw new ResourceAccessException("Connection refused");
+        }));
+
+        assertEquals(1, count("media-player", "/played", "SUCCESS"));
+        assertEquals(1, count("media-player", "/played", "CLIENT_ERROR"));
+        assertEquals(1, count("media-player", "/played", "IO_ERROR"));
+    }
+
+    @Test
+    void testTime_recordsOutcomeOfReactiveCalls() {
+        assertEquals("ok", metrics.time("media-handling", "/media", Mono.just("ok")).block());
+        assertThrows(RuntimeException.class, () -> metrics.time("media-handling", "/media",
+                Mono.error(HttpServerErrorException.create(HttpStatus.BAD_GATEWAY, "Bad Gateway", null, null, null)))
+                .block());
+
+        assertEquals(1, count("media-handling", "/media", "SUCCESS"));
+        assertEquals(1, count("media-handling", "/media", "SERVER_ERROR"));
+    }
+
+    private long count(String service, String endpoint, String outcome) {
+        return meterRegistry.get(DownstreamMetrics.REQUESTS)
+                .tag("service", service)
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .timer().count();
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.recommendations;
+
+import com.example.recommendations.clients.DownstreamMetrics;
+import com.example.recommendations.clients.DownstreamResilience;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for DownstreamResilience, circuit breaking and hedging without any real service.
+ */
+public class DownstreamResilienceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DownstreamResilience resilience;
+
+    @AfterEach
+    void tearDown() {
+        resilience.destroy();
+    }
+
+    @Test
+    void testCall_opensCircuitAfterFailuresAndFallsBack() {
+        resilience = resilience(false);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(List.of(), resilience.call("media-player", "/played", () -> {
+                throw new ResourceAccessException("Connection refused");
+            }, List::of));
+        }
+
+        // Open now, the service isn't called at all
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals(List.of(), resilience.call("media-player", "/played", () -> {
+            calls.incrementAndGet();
+            return List.of(1L);
+        }, List::of));
+        assertEquals(0, calls.get());
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> resilience.call("media-player", "/played", () -> List.of(1L)));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+
+        // Reads without a fallback don't pass off the outage as an empty answer either
+        e = assertThrows(ResponseStatusException.class,
+                () -> resilience.hedged("media-player", "/played", () -> "a", url -> List.of(1L)));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+    }
+
+    @Test
+    void testCall_clientErrorsAreNotFailures() {
+        resilience = resilience(false);
+
+        for (int i = 0; i < 20; i++) {
+            assertThrows(HttpClientErrorException.class, () -> resilience.call("media-handling", "/media/{id}", () -> {
+                throw HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null);
+            }, () -> "fallback"));
+        }
+
+        assertEquals("found", resilience.call("media-handling", "/media/{id}", () -> "found"));
+    }
+
+    @Test
+    void testHedged_usesSecondInstanceWhenFirstIsSlow() {
+        resilience = resilience(true);
+
+        // Learn the usual latency of the endpoint
+        for (int i = 0; i < 20; i++) {
+            resilience.hedged("media-handling", "/media/{id}", () -> "a", url -> url, null);
+        }
+
+        Iterator<String> instances = Stream.of("slow", "fast").iterator();
+        long start = System.nanoTime();
+        String answer = resilience.hedged("media-handling", "/media/{id}", instances::next, url -> {
+            if (url.equals("slow")) {
+                sleep(Duration.ofSeconds(2));
+            }
+            return url;
+        }, null);
+
+        assertEquals("fast", answer);
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1)) < 0);
+        assertEquals(1, meterRegistry.get(DownstreamMetrics.HEDGES).counter().count());
+    }
+
+    private DownstreamResilience resilience(boolean hedgingEnabled) {
+        return new DownstreamResilience(new DownstreamMetrics(meterRegistry), 50, Duration.ofSeconds(2),
+                Duration.ofSeconds(10), hedgingEnabled, 0.95, Duration.ofMillis(10));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
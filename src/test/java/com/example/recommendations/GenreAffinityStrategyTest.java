@@ -0,0 +1,139 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.CatalogSnapshot;
+import com.example.recommendations.services.GenreAffinityStrategy;
+import com.example.recommendations.services.PlayHistory;
+import com.example.recommendations.services.PopularityIndex;
+import com.example.recommendations.util.LongHashSet;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for recommending by weighted genre affinity.
+ */
+public class GenreAffinityStrategyTest {
+
+    // Genre 1 has media 100-199, genre 2 has 200-299 and genre 3 has 300-399
+    private static final CatalogSnapshot CATALOG = catalog();
+
+    @Test
+    void testMostRecommendationsComeFromMostPlayedGenre() {
+        GenreAffinityStrategy strategy = new GenreAffinityStrategy(new SplittableRandom(3), popularity(),
+                Duration.ZERO, 2.0, -1.0, 0.1, 0.5);
+
+        List<PlayedMediaDto> played = List.of(played(100L, 90L), played(200L, 10L));
+        List<Long> result = strategy.recommend(CATALOG, LongHashSet.of(List.of(100L, 200L)),
+                PlayHistory.of(played), Map.of(), 50);
+
+        assertEquals(50, result.size());
+        assertEquals(50, new HashSet<>(result).size());
+        assertFalse(result.contains(100L));
+        assertFalse(result.contains(200L));
+        assertTrue(result.stream().filter(id -> id < 200).count() > 35);
+    }
+
+    @Test
+    void testDislikedGenreIsOnlyReachedThroughExploration() {
+        GenreAffinityStrategy strategy = new GenreAffinityStrategy(new SplittableRandom(5), popularity(),
+                Duration.ZERO, 2.0, -1.0, 0.0, 0.5);
+
+        PlayedMediaDto disliked = played(100L, 50L);
+        disliked.setDisliked(true);
+        List<Long> result = strategy.recommend(CATALOG, new LongHashSet(),
+                PlayHistory.of(List.of(disliked, played(300L, 5L))), Map.of(), 20);
+
+        assertEquals(20, result.size());
+        assertTrue(result.stream().allMatch(id -> id >= 300));
+    }
+
+    @Test
+    void testMostlyDislikedGenreIsNeverDrawn() {
+        GenreAffinityStrategy strategy = new GenreAffinityStrategy(new SplittableRandom(7), popularity(),
+                Duration.ZERO, 2.0, -1.0, 0.5, 0.5);
+
+        PlayedMediaDto first = played(100L, 1L);
+        first.setDisliked(true);
+        PlayedMediaDto second = played(101L, 1L);
+        second.setDisliked(true);
+        List<Long> result = strategy.recommend(CATALOG, LongHashSet.of(List.of(100L, 101L, 200L)),
+                PlayHistory.of(List.of(first, second, played(200L, 3L))), Map.of(), 40);
+
+        assertEquals(40, result.size());
+        assertTrue(result.stream().allMatch(id -> id >= 200));
+    }
+
+    @Test
+    void testOldPlaysWeighLess() {
+        GenreAffinityStrategy strategy = new GenreAffinityStrategy(new SplittableRandom(9), popularity(),
+                Duration.ofDays(1), 2.0, -1.0, 0.0, 0.5);
+
+        PlayedMediaDto old = played(100L, 100L);
+        old.setLastPlayed(Instant.now().minus(Duration.ofDays(30)));
+        PlayedMediaDto recent = played(200L, 10L);
+        recent.setLastPlayed(Instant.now());
+
+        List<Long> result = strategy.recommend(CATALOG, new LongHashSet(),
+                PlayHistory.of(List.of(old, recent)), Map.of(), 20);
+
+        assertTrue(result.stream().allMatch(id -> id >= 200 && id < 300));
+    }
+
+    @Test
+    void testWithoutHistoryPicksFromAllGenres() {
+        GenreAffinityStrategy strategy = new GenreAffinityStrategy(new SplittableRandom(11), popularity(),
+                Duration.ZERO, 2.0, -1.0, 0.2, 0.5);
+
+        List<Long> result = strategy.recommend(CATALOG, new LongHashSet(), PlayHistory.of(List.of()), Map.of(), 60);
+
+        assertEquals(60, result.size());
+        assertTrue(result.stream().anyMatch(id -> id < 200));
+        assertTrue(result.stream().anyMatch(id -> id >= 200 && id < 300));
+        assertTrue(result.stream().anyMatch(id -> id >= 300));
+    }
+
+    @Test
+    void testWithoutHistoryStartsFromPopularMedia() {
+        PopularityIndex popularityIndex = popularity();
+        popularityIndex.observe("other-user", List.of(played(150L, 40L), played(250L, 30L), played(350L, 20L)));
+        popularityIndex.rebuild(CATALOG);
+        GenreAffinityStrategy strategy = new GenreAffinityStrategy(new SplittableRandom(13), popularityIndex,
+                Duration.ZERO, 2.0, -1.0, 0.2, 0.5);
+
+        List<Long> result = strategy.recommend(CATALOG, LongHashSet.of(List.of(250L)), PlayHistory.of(List.of()), Map.of(), 5);
+
+        assertEquals(5, result.size());
+        assertEquals(Set.of(150L, 350L), new HashSet<>(result.subList(0, 2)));
+        assertFalse(result.contains(250L));
+    }
+
+    private static PopularityIndex popularity() {
+        return new PopularityIndex(null, 200, 1000, 1000);
+    }
+
+    private static CatalogSnapshot catalog() {
+        Map<Long, List<Long>> mediaByGenre = new HashMap<>();
+        List<Long> allMedia = new ArrayList<>();
+        for (long genreId = 1; genreId <= 3; genreId++) {
+            List<Long> media = new ArrayList<>();
+            for (long mediaId = genreId * 100; mediaId < genreId * 100 + 100; mediaId++) {
+                media.add(mediaId);
+            }
+            mediaByGenre.put(genreId, media);
+            allMedia.addAll(media);
+        }
+        return CatalogSnapshot.of(mediaByGenre, allMedia, Map.of("Rock", 1L, "Pop", 2L, "Jazz", 3L), Instant.now());
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.recommendations;
+
+import com.example.recommendations.util.JsonIdReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for reading ID lists out of media-handling and media-player responses.
+ */
+public class JsonIdReaderTest {
+
+    @Test
+    void testReadsTopLevelIdsAndSkipsNestedOnes() throws IOException {
+        String json = """
+                [
+                  {"title": "Track A", "genres": [{"id": 99}], "id": 1, "album": {"id": 5}},
+                  {"id": "2"},
+                  {"title": "No ID"},
+                  {"id": null},
+                  {"id": 3}
+                ]
+                """;
+
+        assertArrayEquals(new long[]{1L, 2L, 3L}, read(json, "id"));
+    }
+
+    @Test
+    void testReadsOtherField() throws IOException {
+        String json = """
+                [{"genreId": 10, "name": "Rock"}, {"genreId": 20, "name": "Pop"}]
+                """;
+
+        assertArrayEquals(new long[]{10L, 20L}, read(json, "genreId"));
+    }
+
+    @Test
+    void testEmptyOrNonArrayBodyHasNoIds() throws IOException {
+        assertEquals(0, read("", "id").length);
+        assertEquals(0, read("null", "id").length);
+        assertEquals(0, read("{\"id\": 1}", "id").length);
+    }
+
+    private static long[] read(String json, String field) throws IOException {
+        return JsonIdReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), field);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.recommendations;
+
+import com.example.recommendations.util.LongHashSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for the primitive set used when filtering candidates.
+ */
+public class LongHashSetTest {
+
+    @Test
+    void testAddAndContains() {
+        LongHashSet set = LongHashSet.of(List.of(1L, 2L, 3L));
+
+        assertTrue(set.contains(2L));
+        assertFalse(set.contains(4L));
+        assertFalse(set.add(3L));
+        assertTrue(set.add(4L));
+        assertEquals(4, set.size());
+    }
+
+    @Test
+    void testZeroAndNegativeValues() {
+        LongHashSet set = new LongHashSet();
+
+        assertFalse(set.contains(0L));
+        assertTrue(set.add(0L));
+        assertTrue(set.add(-5L));
+
+        assertTrue(set.contains(0L));
+        assertTrue(set.contains(-5L));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    void testGrowsPastInitialCapacity() {
+        LongHashSet set = new LongHashSet(2);
+        for (long i = 1; i <= 10_000; i++) {
+            set.add(i * 31);
+        }
+
+        assertEquals(10_000, set.size());
+        for (long i = 1; i <= 10_000; i++) {
+            assertTrue(set.contains(i * 31));
+        }
+        assertFalse(set.contains(32L));
+    }
+}
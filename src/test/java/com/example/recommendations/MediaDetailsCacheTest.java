@@ -0,0 +1,83 @@
+package com.example.recommendations;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.services.DownstreamExecutor;
+import com.example.recommendations.services.MediaDetailsCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for caching media details between requests.
+ */
+public class MediaDetailsCacheTest {
+
+    @Mock private MediaHandlingClient mediaHandlingClient;
+    @Mock private Jwt jwt;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MediaDetailsCache cache;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new MediaDetailsCache(mediaHandlingClient,
+                new DownstreamExecutor(4, 4, Duration.ofSeconds(5), Duration.ofSeconds(1)),
+                meterRegistry, 100, Duration.ofMinutes(10), Duration.ofMinutes(1));
+    }
+
+    @Test
+    void testSecondLookupIsServedFromCache() {
+        RecommendationDto dto = new RecommendationDto();
+        dto.setId(10L);
+        when(mediaHandlingClient.getRecommendationByMediaId(10L, jwt)).thenReturn(dto);
+
+        assertSame(dto, cache.get(10L, jwt).join().orElseThrow());
+        assertSame(dto, cache.get(10L, jwt).join().orElseThrow());
+
+        verify(mediaHandlingClient, times(1)).getRecommendationByMediaId(10L, jwt);
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void testMissingMediaIsCachedAsEmpty() {
+        when(mediaHandlingClient.getRecommendationByMediaId(20L, jwt)).thenThrow(
+                HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", HttpHeaders.EMPTY, null, null));
+
+        assertEquals(Optional.empty(), cache.get(20L, jwt).join());
+        assertEquals(Optional.empty(), cache.get(20L, jwt).join());
+
+        verify(mediaHandlingClient, times(1)).getRecommendationByMediaId(20L, jwt);
+    }
+
+    @Test
+    void testFailedLookupsAreNotCached() {
+        RecommendationDto dto = new RecommendationDto();
+        dto.setId(30L);
+        when(mediaHandlingClient.getRecommendationByMediaId(30L, jwt))
+                .thenThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE))
+                .thenReturn(dto);
+
+        assertThrows(CompletionException.class, () -> cache.get(30L, jwt).join());
+        assertSame(dto, cache.get(30L, jwt).join().orElseThrow());
+
+        verify(mediaHandlingClient, times(2)).getRecommendationByMediaId(30L, jwt);
+    }
+}
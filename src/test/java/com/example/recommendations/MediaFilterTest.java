@@ -0,0 +1,86 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.CatalogSnapshot;
+import com.example.recommendations.services.MediaFilter;
+import com.example.recommendations.services.PlayHistory;
+import com.example.recommendations.services.PopularityIndex;
+import com.example.recommendations.services.RecommendationSelector;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for using likes and dislikes of the play history when choosing media.
+ */
+public class MediaFilterTest {
+
+    // Rock has media 1-4, Pop has 4-6 and Jazz has 7-9, media 4 is both Rock and Pop
+    private static final CatalogSnapshot CATALOG = CatalogSnapshot.of(
+            Map.of(1L, List.of(1L, 2L, 3L, 4L), 2L, List.of(4L, 5L, 6L), 3L, List.of(7L, 8L, 9L)),
+            List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L),
+            Map.of("Rock", 1L, "Pop", 2L, "Jazz", 3L),
+            Instant.now());
+
+    @Test
+    void testHistoryAndMostlyDislikedGenresAreExcluded() {
+        PlayHistory history = PlayHistory.of(List.of(disliked(1L), disliked(2L), played(3L, 5L), played(7L, 1L)));
+
+        MediaFilter filter = MediaFilter.of(CATALOG, history.mediaIds(), history, 0.5);
+
+        // 2 of 3 Rock media are disliked, so Rock is avoided, including media 4 that is Pop as well
+        assertTrue(filter.isDislikedGenre(CATALOG.genreIndex(1L)));
+        assertFalse(filter.isDislikedGenre(CATALOG.genreIndex(2L)));
+        assertTrue(filter.test(4L));
+        assertTrue(filter.test(7L));
+        assertFalse(filter.test(5L));
+        assertFalse(filter.test(8L));
+
+        // Unknown media are never recommended, picked media not twice
+        assertTrue(filter.test(99L));
+        filter.exclude(8L);
+        assertTrue(filter.test(8L));
+    }
+
+    @Test
+    void testLikedMediaWeighMoreAndDislikedNotAtAllForTopGenres() {
+        RecommendationSelector selector = new RecommendationSelector(new SplittableRandom(1),
+                new PopularityIndex(null, 200, 1000, 1000), 10.0, 0.5);
+
+        PlayedMediaDto liked = played(7L, 1L);
+        liked.setLiked(true);
+        PlayHistory history = PlayHistory.of(List.of(played(5L, 5L), liked, disliked(1L)));
+        MediaFilter filter = MediaFilter.of(CATALOG, history.mediaIds(), history, 0.5);
+
+        // Jazz has 1 liked play, weighing 10, Pop has 5 plays and the disliked Rock media counts nothing
+        assertEquals(List.of(3L, 2L), new ArrayList<>(selector.topGenreIds(history, CATALOG, Map.of(), filter)));
+    }
+
+    @Test
+    void testRecommendationsSkipMostlyDislikedGenres() {
+        RecommendationSelector selector = new RecommendationSelector(new SplittableRandom(3),
+                new PopularityIndex(null, 200, 1000, 1000), 2.0, 0.5);
+
+        PlayHistory history = PlayHistory.of(List.of(disliked(1L), disliked(2L), played(5L, 3L)));
+        List<Long> result = selector.recommend(CATALOG, history.mediaIds(), history, Map.of(), 10);
+
+        // Rock is avoided, so only 6 is left of Pop and the rest comes from Jazz
+        assertEquals(Set.of(6L, 7L, 8L, 9L), new HashSet<>(result));
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+
+    private static PlayedMediaDto disliked(Long mediaId) {
+        PlayedMediaDto dto = played(mediaId, 1L);
+        dto.setDisliked(true);
+        return dto;
+    }
+}
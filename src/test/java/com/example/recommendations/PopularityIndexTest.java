@@ -0,0 +1,118 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.CatalogSnapshot;
+import com.example.recommendations.services.PopularityIndex;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for ranking the most played media of all users.
+ */
+public class PopularityIndexTest {
+
+    // Genre 1 has media 1-3, genre 2 has media 3-5
+    private static final CatalogSnapshot CATALOG = CatalogSnapshot.of(
+            Map.of(1L, List.of(1L, 2L, 3L), 2L, List.of(3L, 4L, 5L)),
+            List.of(1L, 2L, 3L, 4L, 5L),
+            Map.of("Rock", 1L, "Pop", 2L),
+            Instant.now());
+
+    @Test
+    void testMediaAreRankedByPlaysOfAllUsers() {
+        PopularityIndex index = new PopularityIndex(null, 10, 1000, 1000);
+
+        index.observe("a", List.of(played(1L, 5L), played(4L, 1L)));
+        index.observe("b", List.of(played(4L, 3L), played(5L, 2L)));
+        index.observe("c", List.of(played(5L, 1L), played(2L, 1L)));
+        index.rebuild(CATALOG);
+
+        // 1 and 4 have 5 plays, 5 has 3 and 2 has 1; ties go to the lower ID
+        assertArrayEquals(new long[]{1L, 4L, 5L, 2L}, index.topMedia());
+    }
+
+    @Test
+    void testOnlyNewPlaysOfAUserAreCounted() {
+        PopularityIndex index = new PopularityIndex(null, 10, 1000, 1000);
+
+        // Counted in full every time, 1 would end up with 12 plays
+        index.observe("a", List.of(played(1L, 4L)));
+        index.observe("a", List.of(played(1L, 4L)));
+        index.observe("a", List.of(played(1L, 4L)));
+        index.observe("b", List.of(played(2L, 6L)));
+        index.rebuild(CATALOG);
+
+        assertArrayEquals(new long[]{2L, 1L}, index.topMedia());
+
+        index.observe("a", List.of(played(1L, 7L)));
+        index.rebuild(CATALOG);
+
+        assertArrayEquals(new long[]{1L, 2L}, index.topMedia());
+    }
+
+    @Test
+    void testRankingKeepsTopKAndDropsMediaOutsideTheCatalog() {
+        PopularityIndex index = new PopularityIndex(null, 2, 1000, 1000);
+
+        index.observe("a", List.of(played(1L, 1L), played(2L, 2L), played(3L, 3L), played(99L, 100L)));
+        index.rebuild(CATALOG);
+
+        assertArrayEquals(new long[]{3L, 2L}, index.topMedia());
+    }
+
+    @Test
+    void testSamplesComeFromTheTopOfTheGivenGenres() {
+        PopularityIndex index = new PopularityIndex(null, 2, 1000, 1000);
+        index.observe("a", List.of(played(1L, 9L), played(2L, 8L), played(3L, 1L),
+                played(4L, 7L), played(5L, 6L)));
+        index.rebuild(CATALOG);
+
+        List<Long> picked = new ArrayList<>();
+        int count = index.sampleOfGenres(List.of(2L), 10, id -> id == 5L, new SplittableRandom(1), picked::add);
+
+        // Top 2 of genre 2 are 4 and 5, and 5 is excluded
+        assertEquals(1, count);
+        assertEquals(List.of(4L), picked);
+    }
+
+    @Test
+    void testNothingIsSampledBeforeTheFirstRanking() {
+        PopularityIndex index = new PopularityIndex(null, 10, 1000, 1000);
+        index.observe("a", List.of(played(1L, 5L)));
+
+        List<Long> picked = new ArrayList<>();
+        assertEquals(0, index.sample(10, id -> false, new SplittableRandom(1), picked::add));
+        assertTrue(picked.isEmpty());
+    }
+
+    @Test
+    void testMediaPlayedOnceTheSumsAreFullStillGetRanked() {
+        PopularityIndex index = new PopularityIndex(null, 2, 10, 1000);
+
+        // Every slot for a sum is taken by media played once
+        List<PlayedMediaDto> playedOnce = new ArrayList<>();
+        for (long mediaId = 100; mediaId < 110; mediaId++) {
+            playedOnce.add(played(mediaId, 1L));
+        }
+        index.observe("a", playedOnce);
+        index.observe("b", List.of(played(1L, 9L)));
+        index.rebuild(CatalogSnapshot.empty());
+        assertArrayEquals(new long[]{100L, 101L}, index.topMedia());
+
+        // The rebuild dropped the least played, so media that became popular since get counted
+        index.observe("c", List.of(played(1L, 9L)));
+        index.rebuild(CatalogSnapshot.empty());
+        assertArrayEquals(new long[]{1L, 100L}, index.topMedia());
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.recommendations;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.clients.ReactiveMediaHandlingClient;
+import com.example.recommendations.clients.ReactiveMediaPlayerClient;
+import com.example.recommendations.clients.ServiceTokenClient;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.services.CatalogCache;
+import com.example.recommendations.services.CoOccurrenceIndex;
+import com.example.recommendations.services.DownstreamExecutor;
+import com.example.recommendations.services.GenreResolver;
+import com.example.recommendations.services.MediaDetailsCache;
+import com.example.recommendations.services.PopularityIndex;
+import com.example.recommendations.services.ReactiveRecommendationsService;
+import com.example.recommendations.services.RecommendationMetrics;
+import com.example.recommendations.services.RecommendationPipeline;
+import com.example.recommendations.services.RecommendationSelector;
+import com.example.recommendations.services.RecommendationStrategies;
+import com.example.recommendations.services.UserProfileStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.*;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.RestClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for the ReactiveRecommendationsService, same flows as
+ * RecommendationsServiceTest with the reactive clients mocked.
+ */
+public class ReactiveRecommendationsServiceTest {
+
+    @Mock private MediaHandlingClient mediaHandlingClient;
+    @Mock private ReactiveMediaHandlingClient reactiveMediaHandlingClient;
+    @Mock private ReactiveMediaPlayerClient reactiveMediaPlayerClient;
+    @Mock private Jwt jwt;
+
+    private DownstreamExecutor downstreamExecutor;
+    private ReactiveRecommendationsService service;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+
+        when(jwt.getTokenValue()).thenReturn("dummy-token");
+
+        downstreamExecutor = new DownstreamExecutor(4, 4, Duration.ofSeconds(5), Duration.ofSeconds(1));
+        PopularityIndex popularityIndex = new PopularityIndex(null, 200, 1000, 1000);
+        RecommendationMetrics recommendationMetrics = new RecommendationMetrics(new SimpleMeterRegistry());
+        RecommendationSelector selector = new RecommendationSelector(new SplittableRandom(42), popularityIndex, 2.0, 0.5);
+        service = new ReactiveRecommendationsService(
+                reactiveMediaHandlingClient,
+                reactiveMediaPlayerClient,
+                new CatalogCache(mediaHandlingClient, downstreamExecutor,
+                new ServiceTokenClient(RestClient.builder(), "", "", ""), "", Duration.ofMinutes(5), Duration.ofSeconds(30)),
+                new GenreResolver(mediaHandlingClient, downstreamExecutor, 2048),
+                new MediaDetailsCache(mediaHandlingClient, downstreamExecutor,
+                        new SimpleMeterRegistry(), 100, Duration.ofMinutes(10), Duration.ofMinutes(1)),
+                selector,
+                new RecommendationPipeline(
+                        new RecommendationStrategies(List.of(selector), RecommendationSelector.NAME, RecommendationSelector.NAME, 0),
+                        new CoOccurrenceIndex(true, 20, 1000, 200, 1000, 20, 100),
+                        popularityIndex, recommendationMetrics),
+                new UserProfileStore(false, 1000, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30)),
+                null,
+                recommendationMetrics,
+                false,
+                4,
+                Duration.ofSeconds(5)
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        downstreamExecutor.destroy();
+    }
+
+    @Test
+    void testGetRecommendations_skipsPlayedMedia() {
+        when(mediaHandlingClient.getGenreIdsByName(jwt)).thenReturn(Map.of("Rock", 100L, "Pop", 200L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(new long[]{101L, 102L});
+        when(mediaHandlingClient.getMediaIdsByGenreId(200L, jwt)).thenReturn(new long[]{201L, 202L});
+        when(mediaHandlingClient.getAllMediaIds(jwt)).thenReturn(new long[]{101L, 102L, 201L, 202L});
+
+        when(reactiveMediaPlayerClient.getPlayedMedia(jwt)).thenReturn(Mono.just(List.of(played(101L, 5L), played(999L, 2L))));
+        // 999 is not in the catalog, so its genres are looked up
+        when(reactiveMediaHandlingClient.getGenresByMediaIds(List.of(999L), jwt))
+                .thenReturn(Mono.just(Map.of(999L, List.of("Pop"))));
+
+        List<Long> result = service.getRecommendations(jwt).block();
+
+        assertNotNull(result);
+        assertEquals(Set.of(102L, 201L, 202L), new HashSet<>(result));
+    }
+
+    @Test
+    void testFormatRecommendations_keepsOrderAndSkipsMissingMedia() {
+        ReactiveRecommendationsService spyService = spy(service);
+        doReturn(Mono.just(List.of(10L, 20L, 30L))).when(spyService).getRecommendations(jwt);
+
+        when(reactiveMediaHandlingClient.getRecommendationByMediaId(10L, jwt))
+                .thenReturn(Mono.delay(Duration.ofMillis(50)).map(tick -> recommendation(10L, "Track A")));
+        when(reactiveMediaHandlingClient.getRecommendationByMediaId(20L, jwt)).thenReturn(Mono.empty());
+        when(reactiveMediaHandlingClient.getRecommendationByMediaId(30L, jwt))
+                .thenReturn(Mono.just(recommendation(30L, "Track C")));
+
+        List<RecommendationDto> output = spyService.formatRecommendations(jwt).collectList().block();
+
+        assertNotNull(output);
+        assertEquals(List.of(10L, 30L), output.stream().map(RecommendationDto::getId).toList());
+        verify(reactiveMediaHandlingClient, never()).getGenresByMediaIds(any(), any());
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+
+    private static RecommendationDto recommendation(Long id, String name) {
+        RecommendationDto dto = new RecommendationDto();
+        dto.setId(id);
+        dto.setName(name);
+        return dto;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.CatalogCache;
+import com.example.recommendations.services.CatalogSnapshot;
+import com.example.recommendations.services.RecommendationETags;
+import com.example.recommendations.services.UserProfileStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit test for answering polls with 304 while nothing the response depends on changed.
+ */
+public class RecommendationETagsTest {
+
+    private static final CatalogSnapshot CATALOG = CatalogSnapshot.of(
+            Map.of(1L, List.of(1L, 2L, 3L)), List.of(1L, 2L, 3L), Map.of("Rock", 1L), Instant.now());
+
+    @Mock private CatalogCache catalogCache;
+    @Mock private Jwt jwt;
+
+    UserProfileStore userProfileStore;
+    RecommendationETags eTags;
+    AtomicInteger computed = new AtomicInteger();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        when(jwt.getSubject()).thenReturn("alice");
+        when(catalogCache.current()).thenReturn(CATALOG);
+
+        userProfileStore = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        eTags = new RecommendationETags(userProfileStore, catalogCache, new ObjectMapper(), Duration.ofSeconds(60));
+    }
+
+    @Test
+    void testUnchangedProfileIsAnsweredWithNotModified() {
+        userProfileStore.seed("alice", List.of(played(1L, 2L)), Instant.now());
+
+        ResponseEntity<List<Long>> first = eTags.respond(jwt, "recommendations", null, this::compute);
+        String eTag = first.getHeaders().getETag();
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertTrue(eTag.startsWith("W/\""));
+        assertEquals("max-age=60, private", first.getHeaders().getCacheControl());
+
+        ResponseEntity<List<Long>> again = eTags.respond(jwt, "recommendations", eTag, this::compute);
+        assertEquals(HttpStatus.NOT_MODIFIED, again.getStatusCode());
+        assertEquals(eTag, again.getHeaders().getETag());
+        assertNull(again.getBody());
+        assertEquals(1, computed.get());
+
+        // Another endpoint has its own tag
+        assertEquals(HttpStatus.OK, eTags.respond(jwt, "gettopgenres", eTag, this::compute).getStatusCode());
+    }
+
+    @Test
+    void testEventsAndCatalogChangesGiveNewTags() {
+        userProfileStore.seed("alice", List.of(played(1L, 2L)), Instant.now());
+        String eTag = eTags.of(jwt, "recommendations").orElseThrow();
+
+        userProfileStore.apply(new PlayEventDto("alice", 2L, PlayEventDto.Type.PLAYED, 1L, Instant.now()));
+        String afterEvent = eTags.of(jwt, "recommendations").orElseThrow();
+        assertNotEquals(eTag, afterEvent);
+        assertEquals(HttpStatus.OK, eTags.respond(jwt, "recommendations", eTag, this::compute).getStatusCode());
+
+        when(catalogCache.current()).thenReturn(CatalogSnapshot.of(
+                Map.of(1L, List.of(1L, 2L)), List.of(1L, 2L), Map.of("Rock", 1L), Instant.now()));
+        assertNotEquals(afterEvent, eTags.of(jwt, "recommendations").orElseThrow());
+        String afterCatalog = eTags.of(jwt, "gettopgenres").orElseThrow();
+
+        // Only a genre renamed, which /gettopgenres shows
+        when(catalogCache.current()).thenReturn(CatalogSnapshot.of(
+                Map.of(1L, List.of(1L, 2L)), List.of(1L, 2L), Map.of("Metal", 1L), Instant.now()));
+        assertNotEquals(afterCatalog, eTags.of(jwt, "gettopgenres").orElseThrow());
+    }
+
+    @Test
+    void testWithoutProfilesTheComputedBodyIsTagged() {
+        // Profiles are disabled by default
+        RecommendationETags eTags = new RecommendationETags(
+                new UserProfileStore(false, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30)),
+                catalogCache, new ObjectMapper(), Duration.ofSeconds(60));
+
+        ResponseEntity<List<Long>> first = eTags.respond(jwt, "gettopgenres", null, this::compute);
+        String eTag = first.getHeaders().getETag();
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertTrue(eTag.startsWith("W/\""));
+
+        // Computed again, but the same body isn't sent again
+        ResponseEntity<List<Long>> again = eTags.respond(jwt, "gettopgenres", eTag, this::compute);
+        assertEquals(HttpStatus.NOT_MODIFIED, again.getStatusCode());
+        assertNull(again.getBody());
+        assertEquals(2, computed.get());
+
+        ResponseEntity<List<Long>> changed = eTags.respond(jwt, "gettopgenres", eTag, () -> List.of(3L));
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(eTag, changed.getHeaders().getETag());
+
+        // The same body under another catalog gets another tag
+        when(catalogCache.current()).thenReturn(CatalogSnapshot.of(
+                Map.of(1L, List.of(1L, 2L)), List.of(1L, 2L), Map.of("Rock", 1L), Instant.now()));
+        assertEquals(HttpStatus.OK, eTags.respond(jwt, "gettopgenres", eTag, this::compute).getStatusCode());
+    }
+
+    @Test
+    void testNoTagWithoutCatalog() {
+        userProfileStore.seed("alice", List.of(played(1L, 2L)), Instant.now());
+        when(catalogCache.current()).thenReturn(CatalogSnapshot.empty());
+
+        assertTrue(eTags.of(jwt, "recommendations").isEmpty());
+        ResponseEntity<List<Long>> response = eTags.respond(jwt, "recommendations", "*", this::compute);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getHeaders().getETag());
+    }
+
+    @Test
+    void testIfNoneMatchLists() {
+        assertTrue(RecommendationETags.matches("\"a\", W/\"b\"", "\"b\""));
+        assertTrue(RecommendationETags.matches("\"b\"", "W/\"b\""));
+        assertTrue(RecommendationETags.matches("*", "\"b\""));
+        assertFalse(RecommendationETags.matches("\"a\"", "\"b\""));
+        assertFalse(RecommendationETags.matches(null, "\"b\""));
+    }
+
+    private List<Long> compute() {
+        computed.incrementAndGet();
+        return List.of(1L, 2L);
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.CatalogSnapshot;
+import com.example.recommendations.services.PlayHistory;
+import com.example.recommendations.services.PopularityIndex;
+import com.example.recommendations.services.RecommendationSelector;
+import com.example.recommendations.services.RecommendationSessions;
+import com.example.recommendations.util.FeistelPermutation;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for reading recommendations page by page with a cursor.
+ */
+public class RecommendationSessionsTest {
+
+    // Genre 1 has media 1-100, genre 2 has 51-200 and genre 3 has 201-300, so 51-100 are in two genres
+    private static final CatalogSnapshot CATALOG = CatalogSnapshot.of(
+            Map.of(1L, range(1, 100), 2L, range(51, 200), 3L, range(201, 300)),
+            range(1, 300),
+            Map.of("Rock", 1L, "Pop", 2L, "Jazz", 3L),
+            Instant.now());
+
+    private final RecommendationSessions sessions = new RecommendationSessions(new SplittableRandom(7),
+            new RecommendationSelector(new SplittableRandom(7), new PopularityIndex(null, 200, 1000, 1000), 2.0, 0.5), 0.5);
+
+    @Test
+    void testPermutationCoversEveryPositionOnce() {
+        for (int size : new int[]{0, 1, 2, 3, 17, 1000}) {
+            FeistelPermutation permutation = new FeistelPermutation(42, size);
+            Set<Integer> values = new HashSet<>();
+            for (int i = 0; i < size; i++) {
+                values.add(permutation.get(i));
+            }
+            assertEquals(size, values.size());
+            assertTrue(values.stream().allMatch(value -> value >= 0 && value < size));
+        }
+    }
+
+    @Test
+    void testPagesReadTheCatalogThroughWithoutDuplicates() {
+        PlayHistory history = PlayHistory.of(List.of(played(1L, 5L), played(2L, 3L)));
+
+        List<Long> seen = new ArrayList<>();
+        RecommendationSessions.Page page = sessions.page(CATALOG, history, Map.of(), null, 10);
+        // Rock is the top genre, so 8 of the first 10 are Rock media
+        assertEquals(8, page.mediaIds().stream().filter(id -> id <= 100).count());
+        seen.addAll(page.mediaIds());
+
+        int pages = 1;
+        while (page.nextCursor() != null) {
+            page = sessions.page(CATALOG, history, Map.of(), page.nextCursor(), 10);
+            seen.addAll(page.mediaIds());
+            pages++;
+        }
+
+        // Every media but the 2 played ones comes up exactly once
+        assertEquals(298, seen.size());
+        assertEquals(298, new HashSet<>(seen).size());
+        assertFalse(seen.contains(1L) || seen.contains(2L));
+        assertTrue(pages >= 30 && pages <= 31);
+    }
+
+    @Test
+    void testTheSameCursorGivesTheSamePage() {
+        PlayHistory history = PlayHistory.of(List.of(played(201L, 1L)));
+        String cursor = sessions.page(CATALOG, history, Map.of(), null, 10).nextCursor();
+
+        RecommendationSessions.Page first = sessions.page(CATALOG, history, Map.of(), cursor, 10);
+        RecommendationSessions.Page again = sessions.page(CATALOG, history, Map.of(), cursor, 10);
+
+        assertEquals(first.mediaIds(), again.mediaIds());
+        assertEquals(first.nextCursor(), again.nextCursor());
+    }
+
+    @Test
+    void testCursorsEndWithTheirCatalog() {
+        PlayHistory history = PlayHistory.empty();
+        String cursor = sessions.page(CATALOG, history, Map.of(), null, 10).nextCursor();
+        CatalogSnapshot changed = CatalogSnapshot.of(Map.of(1L, range(1, 101)), range(1, 101), Map.of("Rock", 1L), Instant.now());
+
+        ResponseStatusException gone = assertThrows(ResponseStatusException.class,
+                () -> sessions.page(changed, history, Map.of(), cursor, 10));
+        assertEquals(HttpStatus.GONE, gone.getStatusCode());
+
+        ResponseStatusException invalid = assertThrows(ResponseStatusException.class,
+                () -> sessions.page(CATALOG, history, Map.of(), "not-a-cursor", 10));
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+    }
+
+    private static List<Long> range(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().toList();
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+}
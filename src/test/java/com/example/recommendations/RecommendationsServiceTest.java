@@ -2,16 +2,46 @@ package com.example.recommendations;
 
 import com.example.recommendations.clients.MediaHandlingClient;
 import com.example.recommendations.clients.MediaPlayerClient;
+import com.example.recommendations.clients.ServiceTokenClient;
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.dtos.PrecomputedRecommendationsDto;
 import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.dtos.UserRecommendationsDto;
+import com.example.recommendations.services.CatalogCache;
+import com.example.recommendations.services.CoOccurrenceIndex;
+import com.example.recommendations.services.DownstreamExecutor;
+import com.example.recommendations.services.GenreResolver;
+import com.example.recommendations.services.InMemoryRecommendationStore;
+import com.example.recommendations.services.RecommendationStore;
+import com.example.recommendations.services.MediaDetailsCache;
+import com.example.recommendations.services.PopularityIndex;
+import com.example.recommendations.services.RecommendationHydrator;
+import com.example.recommendations.services.RecommendationMetrics;
+import com.example.recommendations.services.RecommendationPipeline;
+import com.example.recommendations.services.RecommendationSelector;
+import com.example.recommendations.services.RecommendationSessions;
+import com.example.recommendations.services.RecommendationStrategies;
 import com.example.recommendations.services.RecommendationsService;
+import com.example.recommendations.services.UserProfileStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
-import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -24,11 +54,11 @@ public class RecommendationsServiceTest {
 
     @Mock private MediaHandlingClient mediaHandlingClient;
     @Mock private MediaPlayerClient mediaPlayerClient;
-    @Mock private LoadBalancerClient loadBalancerClient;
-    @Mock private RestClient.Builder restClientBuilder;
     @Mock private Jwt jwt;
 
     RecommendationsService service;
+    SimpleMeterRegistry meterRegistry;
+    UserProfileStore userProfileStore;
 
     @BeforeEach
     void setup() {
@@ -36,11 +66,37 @@ public class RecommendationsServiceTest {
 
         when(jwt.getTokenValue()).thenReturn("dummy-token");
 
-        service = new RecommendationsService(
+        meterRegistry = new SimpleMeterRegistry();
+        userProfileStore = new UserProfileStore(true, 1000, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        service = newService(new InMemoryRecommendationStore(1000, Duration.ofHours(1)), false);
+    }
+
+    private RecommendationsService newService(RecommendationStore recommendationStore, boolean precomputeEnabled) {
+        DownstreamExecutor downstreamExecutor = new DownstreamExecutor(4, 4, Duration.ofSeconds(5), Duration.ofSeconds(1));
+        PopularityIndex popularityIndex = new PopularityIndex(null, 200, 1000, 1000);
+        RecommendationMetrics recommendationMetrics = new RecommendationMetrics(meterRegistry);
+        RecommendationSelector selector = new RecommendationSelector(new SplittableRandom(42), popularityIndex, 2.0, 0.5);
+        return new RecommendationsService(
                 mediaHandlingClient,
                 mediaPlayerClient,
-                restClientBuilder,
-                loadBalancerClient
+                downstreamExecutor,
+                new GenreResolver(mediaHandlingClient, downstreamExecutor, 2048),
+                new CatalogCache(mediaHandlingClient, downstreamExecutor,
+                new ServiceTokenClient(RestClient.builder(), "", "", ""), "", Duration.ofMinutes(5), Duration.ofSeconds(30)),
+                new RecommendationHydrator(new MediaDetailsCache(mediaHandlingClient, downstreamExecutor,
+                        new SimpleMeterRegistry(), 100, Duration.ofMinutes(10), Duration.ofMinutes(1)), downstreamExecutor, 4),
+                selector,
+                new RecommendationPipeline(
+                        new RecommendationStrategies(List.of(selector), RecommendationSelector.NAME, RecommendationSelector.NAME, 0),
+                        new CoOccurrenceIndex(true, 20, 1000, 200, 1000, 20, 100),
+                        popularityIndex, recommendationMetrics),
+                userProfileStore,
+                new RecommendationSessions(new SplittableRandom(42), selector, 0.5),
+                recommendationStore,
+                recommendationMetrics,
+                precomputeEnabled,
+                Duration.ofMinutes(10),
+                4
         );
     }
 
@@ -51,39 +107,153 @@ public class RecommendationsServiceTest {
         // bad practice but unfortunately necessary because our service has too many responsibilities
         RecommendationsService spyService = spy(service);
 
-        // fetchPlayCountByMediaIds()
-        Map<Long, Long> playCounts = Map.of(
-                10L, 50L,
-                20L, 30L,
-                30L, 10L
+        // fetchPlayedMedia()
+        List<PlayedMediaDto> playedMedia = List.of(
+                played(10L, 50L),
+                played(20L, 30L),
+                played(30L, 10L)
         );
-        doReturn(playCounts).when(spyService).fetchPlayCountByMediaIds(jwt);
-
-        // mock methods
-        when(mediaPlayerClient.getAllPlayedMedia(jwt)).thenReturn(List.of(1L, 2L));
+        doReturn(playedMedia).when(spyService).fetchPlayedMedia(jwt);
 
-        when(mediaHandlingClient.getGenreIdByMediaId(10L, jwt)).thenReturn(100L);
-        when(mediaHandlingClient.getGenreIdByMediaId(20L, jwt)).thenReturn(200L);
-        when(mediaHandlingClient.getGenreIdByMediaId(30L, jwt)).thenReturn(300L);
+        // fetchGenresByMediaIds()
+        Map<Long, List<String>> genreMap = Map.of(
+                10L, List.of("Rock"),
+                20L, List.of("Pop"),
+                30L, List.of("Jazz")
+        );
+        doReturn(genreMap).when(spyService).fetchGenresByMediaIds(Set.of(10L, 20L, 30L), jwt);
 
-        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(List.of(101L, 102L));
-        when(mediaHandlingClient.getMediaIdsByGenreId(200L, jwt)).thenReturn(List.of(201L, 202L));
-        when(mediaHandlingClient.getMediaIdsByGenreId(300L, jwt)).thenReturn(List.of(301L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(new long[]{101L, 102L});
+        when(mediaHandlingClient.getMediaIdsByGenreId(200L, jwt)).thenReturn(new long[]{201L, 202L});
+        when(mediaHandlingClient.getMediaIdsByGenreId(300L, jwt)).thenReturn(new long[]{301L});
 
-        when(mediaHandlingClient.getAllGenreIds(jwt))
-                .thenReturn(List.of(100L, 200L, 300L, 400L));
+        when(mediaHandlingClient.getGenreIdsByName(jwt))
+                .thenReturn(Map.of("Rock", 100L, "Pop", 200L, "Jazz", 300L, "Blues", 400L));
 
         when(mediaHandlingClient.getMediaIdsByGenreId(400L, jwt))
-                .thenReturn(List.of(401L));
+                .thenReturn(new long[]{401L});
 
         when(mediaHandlingClient.getAllMediaIds(jwt))
-                .thenReturn(List.of(101L, 102L, 201L, 202L, 301L, 401L));
+                .thenReturn(new long[]{101L, 102L, 201L, 202L, 301L, 401L});
 
         List<Long> result = spyService.getRecommendations(jwt);
 
         assertNotNull(result);
         assertFalse(result.isEmpty());
         assertTrue(result.size() <= 10);
+
+        // One call to media-player serves both the played IDs and the play counts
+        verify(spyService, times(1)).fetchPlayedMedia(jwt);
+        verifyNoInteractions(mediaPlayerClient);
+
+        // Every stage of the request is timed, selection per strategy
+        assertEquals(1, meterRegistry.get(RecommendationMetrics.STAGE)
+                .tag("stage", RecommendationMetrics.SELECTION)
+                .tag("strategy", RecommendationSelector.NAME)
+                .timer().count());
+        assertEquals(1, meterRegistry.get(RecommendationMetrics.STAGE)
+                .tag("stage", RecommendationMetrics.CATALOG).timer().count());
+        assertEquals(3, meterRegistry.get("recommendations.history.size").summary().totalAmount());
+    }
+
+    // getRecommendations() with user profiles
+    @Test
+    void testGetRecommendations_readsProfileUpdatedByEvents() {
+        RecommendationsService spyService = spy(service);
+        when(jwt.getSubject()).thenReturn("alice");
+
+        when(mediaHandlingClient.getGenreIdsByName(jwt)).thenReturn(Map.of("Rock", 100L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(new long[]{101L, 102L, 103L});
+        when(mediaHandlingClient.getAllMediaIds(jwt)).thenReturn(new long[]{101L, 102L, 103L});
+        doReturn(List.of(played(101L, 5L))).when(spyService).fetchPlayedMedia(jwt);
+
+        assertEquals(Set.of(102L, 103L), new HashSet<>(spyService.getRecommendations(jwt)));
+
+        // The play reaches the profile, so the next request neither fetches the history nor recommends 102
+        assertTrue(userProfileStore.apply(new PlayEventDto("alice", 102L, PlayEventDto.Type.PLAYED, 1L, Instant.now())));
+
+        assertEquals(List.of(103L), spyService.getRecommendations(jwt));
+        verify(spyService, times(1)).fetchPlayedMedia(jwt);
+    }
+
+    @Test
+    void testGetRecommendations_failsWhileHistoryIsUnavailable() {
+        when(mediaHandlingClient.getGenreIdsByName(jwt)).thenReturn(Map.of("Rock", 100L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(new long[]{101L, 102L});
+        when(mediaHandlingClient.getAllMediaIds(jwt)).thenReturn(new long[]{101L, 102L});
+        when(mediaPlayerClient.getPlayedMedia(jwt))
+                .thenThrow(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "media-player service is not available"));
+
+        // Recommending as if the user played nothing would bring back media they already played
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> service.getRecommendations(jwt));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatusCode());
+    }
+
+    // getBatchRecommendations()
+    @Test
+    void testGetBatchRecommendations_readsCatalogOnceAndAnswersEveryUser() {
+        when(mediaHandlingClient.getGenreIdsByName(jwt)).thenReturn(Map.of("Rock", 100L, "Pop", 200L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(new long[]{101L, 102L, 103L});
+        when(mediaHandlingClient.getMediaIdsByGenreId(200L, jwt)).thenReturn(new long[]{201L, 202L});
+        when(mediaHandlingClient.getAllMediaIds(jwt)).thenReturn(new long[]{101L, 102L, 103L, 201L, 202L});
+
+        when(mediaPlayerClient.getPlayedMedia("alice", jwt)).thenReturn(List.of(played(101L, 5L)));
+        when(mediaPlayerClient.getPlayedMedia("bob", jwt)).thenReturn(List.of(played(201L, 3L)));
+        when(mediaPlayerClient.getPlayedMedia("carol", jwt))
+                .thenThrow(new ResponseStatusException(HttpStatus.BAD_GATEWAY, "boom"));
+
+        // Dave's profile is kept up to date by events, his history isn't fetched
+        userProfileStore.seed("dave", List.of(played(102L, 1L)), Instant.now());
+
+        List<UserRecommendationsDto> output = new ArrayList<>();
+        service.getBatchRecommendations(List.of("alice", "bob", "alice", "carol", "dave"), jwt, 3, output::add);
+
+        assertNotNull(output);
+        Map<String, UserRecommendationsDto> byUser = output.stream()
+                .collect(Collectors.toMap(UserRecommendationsDto::getUserId, dto -> dto));
+        assertEquals(Set.of("alice", "bob", "carol", "dave"), byUser.keySet());
+        assertEquals(3, byUser.get("alice").getRecommendationIds().size());
+        assertFalse(byUser.get("alice").getRecommendationIds().contains(101L));
+        assertFalse(byUser.get("bob").getRecommendationIds().contains(201L));
+        assertTrue(byUser.get("carol").getRecommendationIds().isEmpty());
+        assertNotNull(byUser.get("carol").getError());
+        assertFalse(byUser.get("dave").getRecommendationIds().contains(102L));
+
+        // The catalog is loaded once for the whole batch, and histories are fetched per user
+        verify(mediaHandlingClient, times(1)).getAllMediaIds(jwt);
+        verify(mediaPlayerClient, times(1)).getPlayedMedia("alice", jwt);
+        verify(mediaPlayerClient, never()).getPlayedMedia(jwt);
+        verify(mediaPlayerClient, never()).getPlayedMedia("dave", jwt);
+    }
+
+    @Test
+    void testGetBatchRecommendations_boundsGenreLookupsToo() {
+        when(mediaHandlingClient.getGenreIdsByName(jwt)).thenReturn(Map.of("Rock", 100L));
+        when(mediaHandlingClient.getMediaIdsByGenreId(100L, jwt)).thenReturn(new long[]{101L, 102L});
+        when(mediaHandlingClient.getAllMediaIds(jwt)).thenReturn(new long[]{101L, 102L});
+
+        // Every user played a media the catalog doesn't know, so each of them looks up genres
+        List<String> userIds = new ArrayList<>();
+        for (long user = 0; user < 12; user++) {
+            userIds.add("user-" + user);
+            when(mediaPlayerClient.getPlayedMedia("user-" + user, jwt)).thenReturn(List.of(played(900L + user, 1L)));
+        }
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(mediaHandlingClient.getGenresByMediaIds(anyCollection(), eq(jwt))).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return Map.of();
+        });
+
+        List<UserRecommendationsDto> output = new ArrayList<>();
+        service.getBatchRecommendations(userIds, jwt, 2, output::add);
+
+        assertNotNull(output);
+        assertEquals(12, output.size());
+        assertTrue(output.stream().allMatch(dto -> dto.getError() == null));
+        assertTrue(maxInFlight.get() <= 4, "at most batchConcurrency users at a time, was " + maxInFlight.get());
     }
 
     // formatRecommendations()
@@ -92,10 +262,10 @@ public class RecommendationsServiceTest {
         RecommendationsService spyService = spy(service);
         doReturn(List.of(10L, 20L)).when(spyService).getRecommendations(jwt);
 
-        when(mediaHandlingClient.getMediaByMediaId(10L, jwt))
-                .thenReturn("{\"id\":10,\"name\":\"Track A\"}");
-        when(mediaHandlingClient.getMediaByMediaId(20L, jwt))
-                .thenReturn("{\"id\":20,\"name\":\"Track B\"}");
+        when(mediaHandlingClient.getRecommendationByMediaId(10L, jwt))
+                .thenReturn(recommendation(10L, "Track A"));
+        when(mediaHandlingClient.getRecommendationByMediaId(20L, jwt))
+                .thenReturn(recommendation(20L, "Track B"));
 
         List<RecommendationDto> output = spyService.formatRecommendations(jwt);
 
@@ -105,6 +275,42 @@ public class RecommendationsServiceTest {
         assertEquals(20L, output.get(1).getId());
     }
 
+    // getPrecomputedRecommendations()
+    @Test
+    void testGetPrecomputedRecommendations_answersWhenTheStoreFails() {
+        RecommendationStore store = mock(RecommendationStore.class);
+        when(store.get("alice")).thenReturn(Optional.empty());
+        doThrow(new UncheckedIOException(new IOException("disk full"))).when(store).put(eq("alice"), any());
+        when(jwt.getSubject()).thenReturn("alice");
+
+        RecommendationsService spyService = spy(newService(store, true));
+        doReturn(List.of(recommendation(10L, "Track A"))).when(spyService).formatRecommendations(jwt);
+
+        PrecomputedRecommendationsDto output = spyService.getPrecomputedRecommendations(jwt);
+
+        assertEquals(10L, output.getRecommendations().get(0).getId());
+        verify(store).put(eq("alice"), any());
+    }
+
+    // streamRecommendations()
+    @Test
+    void testStreamRecommendations_emitsFoundMediaUpToLimit() {
+        RecommendationsService spyService = spy(service);
+        doReturn(List.of(10L, 20L, 30L)).when(spyService).getRecommendations(jwt, 3);
+
+        when(mediaHandlingClient.getRecommendationByMediaId(10L, jwt))
+                .thenReturn(recommendation(10L, "Track A"));
+        when(mediaHandlingClient.getRecommendationByMediaId(20L, jwt))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", HttpHeaders.EMPTY, null, null));
+        when(mediaHandlingClient.getRecommendationByMediaId(30L, jwt))
+                .thenReturn(recommendation(30L, "Track C"));
+
+        List<RecommendationDto> output = spyService.streamRecommendations(jwt, 3).collectList().block();
+
+        assertNotNull(output);
+        assertEquals(Set.of(10L, 30L), output.stream().map(RecommendationDto::getId).collect(Collectors.toSet()));
+    }
+
     // calculateTopGenres()
     @Test
     void testCalculateTopGenres() {
@@ -129,5 +335,44 @@ public class RecommendationsServiceTest {
         assertTrue(result.contains("Indie"));
         assertTrue(result.contains("Pop"));
     }
-}
 
+    // calculateTopGenres() adds up plays of all media in a genre
+    @Test
+    void testCalculateTopGenres_sumsPlaysPerGenre() {
+        RecommendationsService spyService = spy(service);
+
+        Map<Long, Long> playCounts = Map.of(
+                10L, 4L,
+                20L, 4L,
+                30L, 7L,
+                40L, 6L,
+                50L, 5L
+        );
+        Map<Long, List<String>> genreMap = Map.of(
+                10L, List.of("Rock"),
+                20L, List.of("Rock"),
+                30L, List.of("Pop"),
+                40L, List.of("Jazz"),
+                50L, List.of("Indie")
+        );
+
+        doReturn(playCounts).when(spyService).fetchPlayCountByMediaIds(jwt);
+        doReturn(genreMap).when(spyService).fetchGenresByMediaIds(playCounts.keySet(), jwt);
+
+        assertEquals(List.of("Rock", "Pop", "Jazz"), spyService.calculateTopGenres(jwt));
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+
+    private static RecommendationDto recommendation(Long id, String name) {
+        RecommendationDto dto = new RecommendationDto();
+        dto.setId(id);
+        dto.setName(name);
+        return dto;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.recommendations;
+
+import com.example.recommendations.dtos.PlayEventDto;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import com.example.recommendations.services.CatalogSnapshot;
+import com.example.recommendations.services.GenreCounts;
+import com.example.recommendations.services.PlayHistory;
+import com.example.recommendations.services.UserProfile;
+import com.example.recommendations.services.UserProfileStore;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit test for keeping user profiles up to date with play events.
+ */
+public class UserProfileStoreTest {
+
+    @Test
+    void testEventsAreAppliedToTheSeededProfile() {
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        store.seed("a", List.of(played(10L, 3L), played(20L, 1L), played(10L, 2L)), Instant.now());
+
+        Instant now = Instant.now();
+        assertTrue(store.apply(new PlayEventDto("a", 20L, PlayEventDto.Type.PLAYED, 4L, now)));
+        assertTrue(store.apply(new PlayEventDto("a", 15L, PlayEventDto.Type.PLAYED, null, now)));
+        assertTrue(store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.DISLIKED, null, now)));
+        assertTrue(store.apply(new PlayEventDto("a", 30L, PlayEventDto.Type.LIKED, null, now)));
+
+        UserProfile profile = store.get("a").orElseThrow();
+        PlayHistory history = profile.toPlayHistory();
+        // Requests get the media played last, latest first, and every like
+        assertEquals(List.of(15L, 20L, 10L), history.playedMedia().stream().map(PlayedMediaDto::getMediaId).toList());
+        assertEquals(Map.of(10L, 5L, 15L, 1L, 20L, 5L), history.playCounts());
+        assertEquals(now.toEpochMilli(), history.playedMedia().get(1).getLastPlayed().toEpochMilli());
+        assertTrue(history.dislikedMediaIds().contains(10L));
+        assertTrue(history.likedMediaIds().contains(30L));
+        assertEquals(4, history.size());
+        assertEquals(5, profile.version());
+    }
+
+    @Test
+    void testGenreCountsFollowEventsLikeACountOfTheFullHistory() {
+        // Rock has media 10 and 15, Pop has 20 and 30, media 99 isn't in the catalog
+        CatalogSnapshot catalog = CatalogSnapshot.of(Map.of(1L, List.of(10L, 15L), 2L, List.of(20L, 30L)),
+                List.of(10L, 15L, 20L, 30L), Map.of("Rock", 1L, "Pop", 2L), Instant.now());
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        Instant now = Instant.now();
+        store.seed("a", List.of(played(10L, 3L, now.minus(Duration.ofDays(10))),
+                played(20L, 2L, now.minus(Duration.ofDays(40))), played(99L, 1L)), now);
+        // Counted here, from then on only changed by the events
+        store.get("a").orElseThrow().toPlayHistory().genreCounts(catalog);
+
+        store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.PLAYED, 2L, now));
+        store.apply(new PlayEventDto("a", 20L, PlayEventDto.Type.LIKED, null, now));
+        store.apply(new PlayEventDto("a", 15L, PlayEventDto.Type.PLAYED, null, now));
+        store.apply(new PlayEventDto("a", 99L, PlayEventDto.Type.DISLIKED, null, now));
+        store.apply(new PlayEventDto("a", 30L, PlayEventDto.Type.PLAYED, 1L, now));
+        store.apply(new PlayEventDto("a", 30L, PlayEventDto.Type.DISLIKED, null, now));
+
+        PlayedMediaDto liked = played(20L, 2L, now.minus(Duration.ofDays(40)));
+        liked.setLiked(true);
+        PlayedMediaDto dislikedUnknown = played(99L, 1L);
+        dislikedUnknown.setDisliked(true);
+        PlayedMediaDto disliked = played(30L, 1L, now);
+        disliked.setDisliked(true);
+        GenreCounts expected = PlayHistory.of(List.of(played(10L, 5L, now), liked, played(15L, 1L, now),
+                dislikedUnknown, disliked)).genreCounts(catalog, Duration.ofDays(30).toMillis());
+
+        GenreCounts counts = store.get("a").orElseThrow().toPlayHistory().genreCounts(catalog);
+        long later = now.plus(Duration.ofDays(5)).toEpochMilli();
+        assertEquals(expected.playedMedia(), counts.playedMedia());
+        assertEquals(Set.of(99L), counts.unknownMediaIds());
+        for (int genreIndex = 0; genreIndex < catalog.genreCount(); genreIndex++) {
+            assertEquals(expected.mediaCount(genreIndex), counts.mediaCount(genreIndex));
+            assertEquals(expected.dislikedCount(genreIndex), counts.dislikedCount(genreIndex));
+            assertEquals(expected.score(genreIndex, 2.0), counts.score(genreIndex, 2.0), 1e-9);
+            assertEquals(expected.affinities(later, 2.0, -1.0)[genreIndex],
+                    counts.affinities(later, 2.0, -1.0)[genreIndex], 1e-6);
+        }
+        // Pop has the liked media, which counts twice, and the disliked one, which doesn't count
+        assertEquals(4.0, counts.score(catalog.genreIndex(2L), 2.0), 1e-9);
+    }
+
+    @Test
+    void testEventsOfUsersWithoutProfileAreDropped() {
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+
+        assertFalse(store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.PLAYED, 1L, Instant.now())));
+        assertTrue(store.get("a").isEmpty());
+
+        // New users start from an empty history, their first plays arrive as events
+        store.seed("a", List.of(), Instant.now());
+        assertTrue(store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.PLAYED, 1L, Instant.now())));
+        assertEquals(Map.of(10L, 1L), store.get("a").orElseThrow().toPlayHistory().playCounts());
+    }
+
+    @Test
+    void testSeedingAgainKeepsVersionsGoingUp() {
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        store.seed("a", List.of(played(10L, 1L)), Instant.now());
+        store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.PLAYED, 1L, Instant.now()));
+
+        store.seed("a", List.of(played(10L, 2L)), Instant.now());
+
+        assertEquals(3, store.get("a").orElseThrow().version());
+    }
+
+    @Test
+    void testEventsReceivedWhileTheHistoryWasFetchedAreKept() throws InterruptedException {
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        store.seed("a", List.of(played(10L, 1L)), Instant.now().minusSeconds(60));
+        store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.PLAYED, 1L, Instant.now()));
+
+        // Fetched after the first event but before the second arrived, so the history only has the first
+        Thread.sleep(2);
+        Instant fetchedAt = Instant.now();
+        Thread.sleep(2);
+        store.apply(new PlayEventDto("a", 20L, PlayEventDto.Type.LIKED, null, Instant.now()));
+        store.seed("a", List.of(played(10L, 2L)), fetchedAt);
+
+        PlayHistory history = store.get("a").orElseThrow().toPlayHistory();
+        assertEquals(Map.of(10L, 2L), history.playCounts());
+        assertTrue(history.likedMediaIds().contains(20L));
+        assertEquals(2, history.size());
+
+        // A history fetched before the one the profile has now is not taken
+        store.seed("a", List.of(played(10L, 1L)), fetchedAt.minusSeconds(1));
+        assertEquals(Map.of(10L, 2L), store.get("a").orElseThrow().toPlayHistory().playCounts());
+    }
+
+    @Test
+    void testPlaysTheFetchedHistoryHasAreNotCountedTwice() throws InterruptedException {
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30));
+        store.seed("a", List.of(played(10L, 1L, Instant.now().minusSeconds(120))), Instant.now().minusSeconds(60));
+
+        // Both plays arrive while the history is fetched, media-player stored the first in time and not the second
+        Instant fetchedAt = Instant.now();
+        Thread.sleep(2);
+        Instant playedAt = Instant.now();
+        store.apply(new PlayEventDto("a", 10L, PlayEventDto.Type.PLAYED, 1L, playedAt));
+        store.apply(new PlayEventDto("a", 20L, PlayEventDto.Type.PLAYED, 1L, playedAt));
+        store.apply(new PlayEventDto("a", 30L, PlayEventDto.Type.PLAYED, 1L, playedAt));
+        store.seed("a", List.of(played(10L, 2L, playedAt), played(30L, 1L, playedAt.minusSeconds(1))), fetchedAt);
+
+        assertEquals(Map.of(10L, 2L, 20L, 1L, 30L, 2L), store.get("a").orElseThrow().toPlayHistory().playCounts());
+    }
+
+    @Test
+    void testProfilesAreFetchedAgainAfterResync() {
+        UserProfileStore store = new UserProfileStore(true, 100, Duration.ofHours(1), Duration.ZERO, Duration.ofDays(30));
+        store.seed("a", List.of(played(10L, 1L)), Instant.now());
+
+        assertTrue(store.get("a").isEmpty());
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount) {
+        PlayedMediaDto dto = new PlayedMediaDto();
+        dto.setMediaId(mediaId);
+        dto.setPlayCount(playCount);
+        return dto;
+    }
+
+    private static PlayedMediaDto played(Long mediaId, Long playCount, Instant lastPlayed) {
+        PlayedMediaDto dto = played(mediaId, playCount);
+        dto.setLastPlayed(lastPlayed);
+        return dto;
+    }
+}
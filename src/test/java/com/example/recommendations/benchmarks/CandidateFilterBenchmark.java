@@ -0,0 +1,85 @@
+package com.example.recommendations.benchmarks;
+
+import com.example.recommendations.util.LongArrayList;
+import com.example.recommendations.util.LongHashSet;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filtering catalog candidates against the play history with
+ * List.contains over boxed Longs and with a LongHashSet.
+ * The boxed variant is quadratic, expect it to take seconds per operation
+ * for the largest sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CandidateFilterBenchmark {
+
+    @Param({"1000", "50000"})
+    int historySize;
+
+    @Param({"100000", "1000000"})
+    int catalogSize;
+
+    private long[] catalog;
+    private List<Long> boxedHistory;
+    private long[] history;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+
+        catalog = new long[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            catalog[i] = i + 1;
+        }
+
+        history = new long[historySize];
+        boxedHistory = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            history[i] = random.nextLong(1, catalogSize + 1);
+            boxedHistory.add(history[i]);
+        }
+    }
+
+    @Benchmark
+    public void boxedListContains(Blackhole blackhole) {
+        List<Long> candidates = new ArrayList<>();
+        for (long id : catalog) {
+            if (!boxedHistory.contains(id)) {
+                candidates.add(id);
+            }
+        }
+        blackhole.consume(candidates);
+    }
+
+    @Benchmark
+    public void longHashSetContains(Blackhole blackhole) {
+        LongHashSet streamed = LongHashSet.of(history);
+        LongArrayList candidates = new LongArrayList();
+        for (long id : catalog) {
+            if (!streamed.contains(id)) {
+                candidates.add(id);
+            }
+        }
+        blackhole.consume(candidates);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CandidateFilterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.recommendations.benchmarks;
+
+import com.example.recommendations.clients.MediaHandlingClient;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.util.LongArrayList;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.LongStream;
+
+/**
+ * In-memory media-handling with media IDs 1..mediaCount spread evenly over
+ * genreCount genres, so benchmarks measure our own code and not the network.
+ */
+class FakeMediaHandlingClient extends MediaHandlingClient {
+
+    private final int mediaCount;
+    private final int genreCount;
+
+    FakeMediaHandlingClient(int mediaCount, int genreCount) {
+        super(RestClient.builder(), null, null, HttpClients.createDefault(), Duration.ofSeconds(2), Duration.ofSeconds(30));
+        this.mediaCount = mediaCount;
+        this.genreCount = genreCount;
+    }
+
+    private long genreIdOf(long mediaId) {
+        return mediaId % genreCount + 1;
+    }
+
+    @Override
+    public Long getGenreIdByMediaId(Long mediaID, Jwt jwt) {
+        return genreIdOf(mediaID);
+    }
+
+    @Override
+    public long[] getMediaIdsByGenreId(Long genreId, Jwt jwt) {
+        LongArrayList mediaIds = new LongArrayList(mediaCount / genreCount + 1);
+        // Media of the genre are those with mediaId % genreCount == genreId - 1
+        for (long mediaId = genreId == 1 ? genreCount : genreId - 1; mediaId <= mediaCount; mediaId += genreCount) {
+            mediaIds.add(mediaId);
+        }
+        return mediaIds.toArray();
+    }
+
+    @Override
+    public long[] getAllMediaIds(Jwt jwt) {
+        return LongStream.rangeClosed(1, mediaCount).toArray();
+    }
+
+    @Override
+    public long[] getAllGenreIds(Jwt jwt) {
+        return LongStream.rangeClosed(1, genreCount).toArray();
+    }
+
+    @Override
+    public Map<String, Long> getGenreIdsByName(Jwt jwt) {
+        Map<String, Long> genreIdsByName = new LinkedHashMap<>();
+        for (long genreId = 1; genreId <= genreCount; genreId++) {
+            genreIdsByName.put("Genre " + genreId, genreId);
+        }
+        return genreIdsByName;
+    }
+
+    @Override
+    public Map<Long, List<String>> getGenresByMediaIds(Collection<Long> mediaIds, Jwt jwt) {
+        Map<Long, List<String>> genresByMediaIds = new HashMap<>();
+        for (Long mediaId : mediaIds) {
+            genresByMediaIds.put(mediaId, List.of("Genre " + genreIdOf(mediaId)));
+        }
+        return genresByMediaIds;
+    }
+
+    @Override
+    public RecommendationDto getRecommendationByMediaId(Long mediaId, Jwt jwt) {
+        RecommendationDto dto = new RecommendationDto();
+        dto.setId(mediaId);
+        dto.setName("Media " + mediaId);
+        dto.setMediaType("song");
+        dto.setGenres(List.of("Genre " + genreIdOf(mediaId)));
+        return dto;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.recommendations.benchmarks;
+
+import com.example.recommendations.clients.MediaPlayerClient;
+import com.example.recommendations.dtos.PlayedMediaDto;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * In-memory media-player returning the same random play history for every user.
+ */
+class FakeMediaPlayerClient extends MediaPlayerClient {
+
+    private final Map<Long, Long> playCounts;
+    private final List<PlayedMediaDto> playedMedia;
+
+    FakeMediaPlayerClient(int mediaCount, int historySize, long seed) {
+        super(RestClient.builder(), null, null, HttpClients.createDefault(), Duration.ofSeconds(2), "");
+
+        SplittableRandom random = new SplittableRandom(seed);
+        Map<Long, Long> history = new HashMap<>();
+        while (history.size() < Math.min(historySize, mediaCount)) {
+            history.put(random.nextLong(1, mediaCount + 1), random.nextLong(1, 500));
+        }
+        this.playCounts = Collections.unmodifiableMap(history);
+
+        List<PlayedMediaDto> played = new ArrayList<>(history.size());
+        history.forEach((mediaId, playCount) -> {
+            PlayedMediaDto dto = new PlayedMediaDto();
+            dto.setMediaId(mediaId);
+            dto.setPlayCount(playCount);
+            played.add(dto);
+        });
+        this.playedMedia = List.copyOf(played);
+    }
+
+    @Override
+    public List<PlayedMediaDto> getPlayedMedia(Jwt jwt) {
+        return playedMedia;
+    }
+
+    @Override
+    public List<PlayedMediaDto> getPlayedMedia(String userId, Jwt serviceJwt) {
+        return playedMedia;
+    }
+
+    @Override
+    public long[] getAllPlayedMedia(Jwt jwt) {
+        return playCounts.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.recommendations.benchmarks;
+
+import com.example.recommendations.clients.ServiceTokenClient;
+import com.example.recommendations.config.RecommendationsConfig;
+import com.example.recommendations.dtos.RecommendationDto;
+import com.example.recommendations.dtos.UserRecommendationsDto;
+import com.example.recommendations.services.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the recommendation pipeline against in-memory fakes of media-handling
+ * and media-player, so only candidate generation, scoring and hydration are timed.
+ * Run all benchmarks with the GC profiler through: mvn -Pbenchmarks -DskipTests test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RecommendationsPipelineBenchmark {
+
+    private static final List<String> BATCH_USERS = IntStream.range(0, 100).mapToObj(i -> "user-" + i).toList();
+
+    @Param({"10000", "1000000"})
+    int catalogSize;
+
+    @Param({"100", "10000"})
+    int historySize;
+
+    @Param({"20", "500"})
+    int genreCount;
+
+    @Param({RecommendationSelector.NAME, GenreAffinityStrategy.NAME})
+    String strategy;
+
+    private DownstreamExecutor downstreamExecutor;
+    private RecommendationsService service;
+    private Jwt jwt;
+
+    @Setup
+    public void setup() {
+        FakeMediaHandlingClient mediaHandlingClient = new FakeMediaHandlingClient(catalogSize, genreCount);
+        FakeMediaPlayerClient mediaPlayerClient = new FakeMediaPlayerClient(catalogSize, historySize, 42);
+        downstreamExecutor = new DownstreamExecutor(64, 64, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        CatalogCache catalogCache = new CatalogCache(mediaHandlingClient, downstreamExecutor,
+                new ServiceTokenClient(RestClient.builder(), "", "", ""), "", Duration.ofMinutes(5), Duration.ofSeconds(30));
+        PopularityIndex popularityIndex = new PopularityIndex(catalogCache, 200, 50_000, 10_000);
+        RandomGenerator random = new RecommendationsConfig().recommendationsRandom();
+        RecommendationSelector selector = new RecommendationSelector(random, popularityIndex, 2.0, 0.5);
+        GenreAffinityStrategy affinity = new GenreAffinityStrategy(random, popularityIndex,
+                Duration.ofDays(30), 2.0, -1.0, 0.2, 0.5);
+        RecommendationMetrics metrics = new RecommendationMetrics(new SimpleMeterRegistry());
+
+        service = new RecommendationsService(
+                mediaHandlingClient,
+                mediaPlayerClient,
+                downstreamExecutor,
+                new GenreResolver(mediaHandlingClient, downstreamExecutor, 2048),
+                catalogCache,
+                new RecommendationHydrator(new MediaDetailsCache(mediaHandlingClient, downstreamExecutor,
+                        new SimpleMeterRegistry(), 10_000, Duration.ofMinutes(10), Duration.ofMinutes(1)),
+                        downstreamExecutor, 16),
+                selector,
+                new RecommendationPipeline(
+                        new RecommendationStrategies(List.of(selector, affinity), strategy, strategy, 0),
+                        new CoOccurrenceIndex(false, 20, 50_000, 200, 10_000, 20, 100),
+                        popularityIndex, metrics),
+                new UserProfileStore(false, 10_000, Duration.ofHours(1), Duration.ofHours(6), Duration.ofDays(30)),
+                new RecommendationSessions(random, selector, 0.5),
+                new InMemoryRecommendationStore(1000, Duration.ofHours(1)),
+                metrics,
+                false,
+                Duration.ofMinutes(10),
+                16
+        );
+
+        jwt = Jwt.withTokenValue("benchmark")
+                .header("alg", "none")
+                .subject("benchmark-user")
+                .expiresAt(Instant.now().plus(Duration.ofDays(1)))
+                .build();
+
+        // Load the catalog once, like the first request of a running instance
+        service.getRecommendations(jwt);
+    }
+
+    @TearDown
+    public void tearDown() {
+        downstreamExecutor.destroy();
+    }
+
+    @Benchmark
+    public List<Long> getRecommendations() {
+        return service.getRecommendations(jwt);
+    }
+
+    // 100 users per call, compare with 100 times getRecommendations
+    @Benchmark
+    public List<UserRecommendationsDto> getBatchRecommendations() {
+        List<UserRecommendationsDto> users = new ArrayList<>(BATCH_USERS.size());
+        service.getBatchRecommendations(BATCH_USERS, jwt, 10, users::add);
+        return users;
+    }
+
+    @Benchmark
+    public List<String> calculateTopGenres() {
+        return service.calculateTopGenres(jwt);
+    }
+
+    @Benchmark
+    public List<RecommendationDto> formatRecommendations() {
+        return service.formatRecommendations(jwt);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RecommendationsPipelineBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}